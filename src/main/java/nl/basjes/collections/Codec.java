@@ -0,0 +1,145 @@
+package nl.basjes.collections;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Converts instances into a (compact) byte representation and back.
+ * @param <T> The type of the instances.
+ */
+public interface Codec<T> extends Serializable {
+
+    /**
+     * @param instance The instance to encode (never null).
+     * @return The encoded form of the instance.
+     */
+    byte[] encode(T instance);
+
+    /**
+     * @param bytes The encoded form as created by {@link #encode(Object)}.
+     * @return The decoded instance.
+     */
+    T decode(byte[] bytes);
+
+    /**
+     * @return A codec that uses the standard Java serialization.
+     */
+    static <T extends Serializable> Codec<T> serializing() {
+        return new Codec<>() {
+            @Override
+            public byte[] encode(T instance) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(instance);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to serialize " + instance.getClass(), e);
+                }
+                return bytes.toByteArray();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T decode(byte[] bytes) {
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return (T) in.readObject();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to deserialize", e);
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException("Unable to deserialize", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return A codec that stores Strings as UTF-8.
+     */
+    static Codec<String> utf8() {
+        return new Codec<>() {
+            @Override
+            public byte[] encode(String instance) {
+                return instance.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String decode(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /**
+     * @param codec The codec that creates the bytes that are to be compressed.
+     * @return A codec that compresses the output of the provided codec using Deflate.
+     */
+    static <T> Codec<T> deflated(Codec<T> codec) {
+        return deflated(codec, null);
+    }
+
+    /**
+     * @param codec The codec that creates the bytes that are to be compressed.
+     * @param dictionary A preset dictionary with byte sequences that are expected to be common in the encoded values
+     *                   (may be null). This makes compressing many small but similar values a lot more effective.
+     * @return A codec that compresses the output of the provided codec using Deflate.
+     */
+    static <T> Codec<T> deflated(Codec<T> codec, byte[] dictionary) {
+        return new Codec<>() {
+            @Override
+            public byte[] encode(T instance) {
+                byte[] input = codec.encode(instance);
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                try {
+                    if (dictionary != null) {
+                        deflater.setDictionary(dictionary);
+                    }
+                    deflater.setInput(input);
+                    deflater.finish();
+                    ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+                    byte[] buffer = new byte[Math.max(64, input.length)];
+                    while (!deflater.finished()) {
+                        output.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                    return output.toByteArray();
+                } finally {
+                    deflater.end();
+                }
+            }
+
+            @Override
+            public T decode(byte[] bytes) {
+                Inflater inflater = new Inflater();
+                try {
+                    inflater.setInput(bytes);
+                    ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length * 4);
+                    byte[] buffer = new byte[Math.max(256, bytes.length * 4)];
+                    while (!inflater.finished()) {
+                        int length = inflater.inflate(buffer);
+                        if (length == 0) {
+                            if (inflater.needsDictionary() && dictionary != null) {
+                                inflater.setDictionary(dictionary);
+                            } else if (inflater.needsInput() || inflater.needsDictionary()) {
+                                throw new IllegalStateException("Unable to inflate: the data is incomplete.");
+                            }
+                        }
+                        output.write(buffer, 0, length);
+                    }
+                    return codec.decode(output.toByteArray());
+                } catch (DataFormatException e) {
+                    throw new IllegalStateException("Unable to inflate", e);
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+}
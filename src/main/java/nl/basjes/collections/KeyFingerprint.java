@@ -0,0 +1,192 @@
+package nl.basjes.collections;
+
+import java.io.Serializable;
+import java.security.SecureRandom;
+
+/**
+ * A compact replacement for a (possibly very large) text or byte[] key.
+ * Instead of retaining the key itself only a 64 bit fingerprint (and optionally a second
+ * 64 bit verification hash) of the key is retained.
+ * Two fingerprints are equal if all the retained bits are equal which makes an equality check
+ * a simple compare of one (or two) longs.
+ * <p>
+ * Because keys like a User-Agent are controlled by outsiders the fingerprints are created with a keyed
+ * hash (SipHash-2-4) using secret random keys that are different for each map.
+ * Without knowing those keys it is not possible to construct two keys with the same fingerprint.
+ * <p>
+ * Only CharSequence (hashed on the chars, so a String and a StringBuilder with the same text are the same key)
+ * and byte[] (hashed on the content) keys are supported because for other types there is no
+ * representation that reliably follows their equals.
+ */
+final class KeyFingerprint implements Serializable {
+
+    /** The secret keys of the hash functions. */
+    static final class Keys implements Serializable {
+        private final long fingerprint0;
+        private final long fingerprint1;
+        private final long verification0;
+        private final long verification1;
+
+        Keys(long fingerprint0, long fingerprint1, long verification0, long verification1) {
+            this.fingerprint0 = fingerprint0;
+            this.fingerprint1 = fingerprint1;
+            this.verification0 = verification0;
+            this.verification1 = verification1;
+        }
+
+        /**
+         * @return New unpredictable keys.
+         */
+        static Keys random() {
+            SecureRandom random = new SecureRandom();
+            return new Keys(random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong());
+        }
+    }
+
+    // Makes sure a text and a byte[] with the same bytes do not get the same fingerprint.
+    private static final long CHARS_TWEAK = 0x9E3779B97F4A7C15L;
+
+    /** The fingerprint of the key */
+    private final long fingerprint;
+
+    /** The verification hash of the key (0 if not verified) */
+    private final long verification;
+
+    private KeyFingerprint(long fingerprint, long verification) {
+        this.fingerprint = fingerprint;
+        this.verification = verification;
+    }
+
+    /**
+     * @param key The key
+     * @return true if a fingerprint can be created for this key.
+     */
+    static boolean supports(Object key) {
+        return key instanceof CharSequence || key instanceof byte[];
+    }
+
+    /**
+     * Create the fingerprint of the provided key.
+     * @param key The key (must be a CharSequence or a byte[])
+     * @param keys The secret keys of the hash functions.
+     * @param verify If a second hash must be retained to reduce the chance of a collision.
+     * @return The fingerprint of the key.
+     */
+    static KeyFingerprint of(Object key, Keys keys, boolean verify) {
+        if (key instanceof CharSequence) {
+            CharSequence chars = (CharSequence) key;
+            return new KeyFingerprint(
+                sipHash(keys.fingerprint0, keys.fingerprint1 ^ CHARS_TWEAK, chars),
+                verify ? sipHash(keys.verification0, keys.verification1 ^ CHARS_TWEAK, chars) : 0);
+        }
+        if (key instanceof byte[]) {
+            byte[] bytes = (byte[]) key;
+            return new KeyFingerprint(
+                sipHash(keys.fingerprint0, keys.fingerprint1, bytes),
+                verify ? sipHash(keys.verification0, keys.verification1, bytes) : 0);
+        }
+        throw new IllegalArgumentException("Only CharSequence and byte[] keys can be fingerprinted (not " +
+            (key == null ? "null" : key.getClass().getName()) + ").");
+    }
+
+    /** The state of a single SipHash-2-4 computation. */
+    private static final class SipHash {
+        private long v0;
+        private long v1;
+        private long v2;
+        private long v3;
+
+        SipHash(long k0, long k1) {
+            v0 = k0 ^ 0x736F6D6570736575L;
+            v1 = k1 ^ 0x646F72616E646F6DL;
+            v2 = k0 ^ 0x6C7967656E657261L;
+            v3 = k1 ^ 0x7465646279746573L;
+        }
+
+        private void round() {
+            v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+            v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+            v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+            v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+        }
+
+        void block(long block) {
+            v3 ^= block;
+            round();
+            round();
+            v0 ^= block;
+        }
+
+        long finish(long lastBlock) {
+            block(lastBlock);
+            v2 ^= 0xFF;
+            round();
+            round();
+            round();
+            round();
+            return v0 ^ v1 ^ v2 ^ v3;
+        }
+    }
+
+    // SipHash-2-4 of the bytes.
+    static long sipHash(long k0, long k1, byte[] bytes) {
+        SipHash sipHash = new SipHash(k0, k1);
+        int length = bytes.length;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long block = 0;
+            for (int b = 7; b >= 0; b--) {
+                block = (block << 8) | (bytes[i + b] & 0xFFL);
+            }
+            sipHash.block(block);
+        }
+        long last = ((long) length) << 56;
+        for (int shift = 0; i < length; i++, shift += 8) {
+            last |= (bytes[i] & 0xFFL) << shift;
+        }
+        return sipHash.finish(last);
+    }
+
+    // SipHash-2-4 of the chars as UTF-16LE (without creating those bytes).
+    static long sipHash(long k0, long k1, CharSequence chars) {
+        SipHash sipHash = new SipHash(k0, k1);
+        int length = chars.length();
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            sipHash.block(
+                          chars.charAt(i)
+                | ((long) chars.charAt(i + 1) << 16)
+                | ((long) chars.charAt(i + 2) << 32)
+                | ((long) chars.charAt(i + 3) << 48));
+        }
+        long last = ((long) (length * 2)) << 56;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            last |= (long) chars.charAt(i) << shift;
+        }
+        return sipHash.finish(last);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KeyFingerprint)) {
+            return false;
+        }
+        KeyFingerprint that = (KeyFingerprint) o;
+        return fingerprint == that.fingerprint && verification == that.verification;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return verification == 0 ?
+            String.format("#%016x", fingerprint) :
+            String.format("#%016x%016x", fingerprint, verification);
+    }
+}
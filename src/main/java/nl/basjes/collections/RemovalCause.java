@@ -0,0 +1,15 @@
+package nl.basjes.collections;
+
+/**
+ * The reason an entry was removed from the map.
+ */
+public enum RemovalCause {
+    /** The entry was removed because the map exceeded its capacity or maximum weight. */
+    SIZE,
+    /** The entry was removed by the user (remove, clear, ...). */
+    EXPLICIT,
+    /** The value of the entry was replaced by a new value (the key remains present). */
+    REPLACED,
+    /** The (soft) value was cleared by the garbage collector, the value in the notification is always null. */
+    COLLECTED
+}
@@ -0,0 +1,13 @@
+package nl.basjes.collections;
+
+/**
+ * Is informed about the entries that are removed from the map.
+ * This is never called while the lock of the map is held.
+ * To get a Flow.Publisher simply use the submit method of a SubmissionPublisher as the listener.
+ * @param <K> The type of the key
+ * @param <V> The type of the value
+ */
+@FunctionalInterface
+public interface RemovalListener<K, V> {
+    void onRemoval(RemovalNotification<K, V> notification);
+}
@@ -0,0 +1,28 @@
+package nl.basjes.collections;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A single entry that was removed from the map.
+ * @param <K> The type of the key
+ * @param <V> The type of the value
+ */
+@AllArgsConstructor
+public final class RemovalNotification<K, V> {
+    /** The key (null if the key was null or the key is not retained) */
+    @Getter private final K key;
+    /** The removed value */
+    @Getter private final V value;
+    /** Why it was removed */
+    @Getter private final RemovalCause cause;
+
+    @Override
+    public String toString() {
+        return "RemovalNotification{" +
+            "key=" + key +
+            ", value=" + value +
+            ", cause=" + cause +
+            '}';
+    }
+}
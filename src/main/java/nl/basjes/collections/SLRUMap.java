@@ -4,15 +4,33 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 
 import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.time.Duration;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 public class SLRUMap<K extends Serializable, V extends Serializable> implements Map<K, V>, Serializable {
 
@@ -23,10 +41,39 @@ public class SLRUMap<K extends Serializable, V extends Serializable> implements
     public static final int MAXIMUM_CAPACITY = 10_000_000;
 
     // The maximum number of entries in the LRU
-    private final int capacity;
+    private volatile int capacity;
 
-    /** Hash based lookup for fast and unsynchronized retrieval */
-    private final SameHashIndexMap<K, V>[] hashLookup;
+    /** The maximum number of entries that are evicted while holding the lock */
+    public static final int EVICTION_BATCH_SIZE = 10_000;
+
+    /** The initial size of the hash based lookup (must be a power of 2) */
+    static final int INITIAL_HASH_LOOKUP_SIZE = 16;
+
+    /** The maximum size of the hash based lookup (must be a power of 2) */
+    static final int MAXIMUM_HASH_LOOKUP_SIZE = 1 << 30;
+
+    /** The number of buckets that are moved to the new hash based lookup with each put while resizing */
+    static final int RESIZE_BUCKETS_PER_PUT = 8;
+
+    /** The number of buckets that are moved to the new hash based lookup while holding the lock after the capacity was reduced */
+    static final int RESIZE_BUCKETS_PER_STEP = 10_000;
+
+    // The hash based lookup is grown if the number of entries exceed this factor of the number of buckets.
+    private final float loadFactor;
+
+    /**
+     * Hash based lookup for fast and unsynchronized retrieval.
+     * This starts small and is grown (doubled) when needed and shrunk when it has become far too big.
+     * While resizing this lookup remains complete and is only replaced after all entries
+     * are available in the new lookup so a reader never needs to wait or look in two places.
+     */
+    private volatile SameHashIndexMap<K, V>[] hashLookup;
+
+    /** The new hash based lookup that is being filled (only accessed while holding the lock). */
+    private SameHashIndexMap<K, V>[] nextHashLookup = null;
+
+    /** How many buckets of the current hashLookup have been moved to the nextHashLookup. */
+    private int movedBuckets = 0;
 
     private static int cleanHashCode(Object key) {
         if (key == null) {
@@ -35,47 +82,327 @@ public class SLRUMap<K extends Serializable, V extends Serializable> implements
         return key.hashCode();
     }
 
-    private int hashIndex(int hashCode) {
-        if (hashCode == Integer.MIN_VALUE) {
-            hashCode = 0;
+    // Spread the higher bits downward because only the lower bits are used to find the bucket.
+    private static int spreadHash(Object storedKey) {
+        int hashCode = cleanHashCode(storedKey);
+        return hashCode ^ (hashCode >>> 16);
+    }
+
+    private static int hashIndex(int spreadHash, SameHashIndexMap<?, ?>[] lookup) {
+        return spreadHash & (lookup.length - 1);
+    }
+
+    /**
+     * Raw map of all elements (by their stored key).
+     * This is only changed while holding the lock but can be iterated (weakly consistent) without the lock.
+     * A ConcurrentHashMap never shrinks so this is replaced by a copy when it has become far too big.
+     */
+    private volatile ConcurrentHashMap<Object, LRUEntry<K, V>> allEntries;
+
+    /** The largest number of entries allEntries has had (which determines the size of its table). */
+    private int allEntriesPeakSize = 0;
+
+    /** The stored key that represents the null key (a ConcurrentHashMap does not allow null keys). */
+    private static final class NullKey implements Serializable {
+        private static final NullKey INSTANCE = new NullKey();
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "null";
+        }
+
+        private Object readResolve() {
+            return INSTANCE;
+        }
+    }
+
+    /**
+     * How the keys are retained in this map.
+     */
+    public enum KeyStorage {
+        /** The actual key instances are retained (default). */
+        FULL_KEY,
+        /** Only a 64 bit fingerprint of the key is retained and trusted to be unique. */
+        FINGERPRINT,
+        /** A 64 bit fingerprint and a second 64 bit verification hash (with its own secret key) of the key are retained. */
+        VERIFIED_FINGERPRINT
+    }
+
+    @Getter private KeyStorage keyStorage = KeyStorage.FULL_KEY;
+
+    /** The secret keys used to create the fingerprints of the keys (null when the full keys are retained). */
+    private KeyFingerprint.Keys fingerprintKeys = null;
+
+    /**
+     * Configure how the keys are retained.
+     * When using one of the fingerprint modes the memory needed per entry is independent of the size of the key
+     * and looking up an entry only compares the fingerprints.
+     * The price is that the actual keys are no longer available (so no keySet() and entrySet())
+     * and that (with an extremely low probability) two different keys can be seen as the same key.
+     * The fingerprint modes only support CharSequence and byte[] keys.
+     * @param newKeyStorage The way the keys must be retained.
+     */
+    public synchronized void setKeyStorage(KeyStorage newKeyStorage) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("The key storage can only be changed when the map is empty.");
+        }
+        if (refreshPolicy != null && newKeyStorage != KeyStorage.FULL_KEY) {
+            throw new IllegalStateException("Refreshing values requires the keys to be retained.");
+        }
+        keyStorage = Objects.requireNonNull(newKeyStorage);
+        fingerprintKeys = newKeyStorage == KeyStorage.FULL_KEY ? null : KeyFingerprint.Keys.random();
+    }
+
+    /**
+     * Convert the provided key into the instance that is actually stored.
+     * @return The stored key or null if a key like this can never be stored.
+     */
+    private Object storedKey(Object key) {
+        if (key == null) {
+            return NullKey.INSTANCE;
+        }
+        switch (keyStorage) {
+            case FINGERPRINT:
+                return KeyFingerprint.supports(key) ? KeyFingerprint.of(key, fingerprintKeys, false) : null;
+            case VERIFIED_FINGERPRINT:
+                return KeyFingerprint.supports(key) ? KeyFingerprint.of(key, fingerprintKeys, true) : null;
+            case FULL_KEY:
+            default:
+                return key;
+        }
+    }
+
+    private void failIfKeysAreNotRetained() {
+        if (keyStorage != KeyStorage.FULL_KEY) {
+            throw new UnsupportedOperationException("The keys are not retained when using " + keyStorage);
+        }
+    }
+
+    /** The (optional) codec used to store the values in an encoded (i.e. compressed) form. */
+    @Getter private Codec<V> valueCodec = null;
+
+    /** A small cache of recently decoded values to avoid decoding the same hot values over and over again. */
+    private transient DecodedValue<V>[] decodedValues = null;
+
+    private static final class DecodedValue<V> {
+        private final byte[] encoded;
+        private final V value;
+
+        DecodedValue(byte[] encoded, V value) {
+            this.encoded = encoded;
+            this.value = value;
+        }
+    }
+
+    /** The maximum total weight (i.e. bytes of encoded values) of all entries. */
+    @Getter private volatile long maxWeight = Long.MAX_VALUE;
+
+    /** The total weight (i.e. bytes of encoded values) of all entries. */
+    @Getter private volatile long weight = 0;
+
+    /**
+     * Store all values in an encoded form (i.e. compressed) using the provided codec.
+     * @param codec The codec to use.
+     */
+    public void setValueCodec(Codec<V> codec) {
+        setValueCodec(codec, 0);
+    }
+
+    /**
+     * Store all values in an encoded form (i.e. compressed) using the provided codec.
+     * The weight of an entry is the number of bytes of the encoded value.
+     * NOTE: The values that are retained in the decoded cache are shared between all callers of get.
+     * NOTE: The decoded cache is not used when the values are soft values.
+     * @param codec The codec to use.
+     * @param decodedCacheSize The number of slots (rounded up to a power of 2) in the cache of decoded values
+     *                         (0 = no cache of decoded values).
+     */
+    @SuppressWarnings("unchecked") // Because of Generic array creation
+    public synchronized void setValueCodec(Codec<V> codec, int decodedCacheSize) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("The value codec can only be changed when the map is empty.");
+        }
+        valueCodec = codec;
+        if (codec == null || decodedCacheSize <= 0) {
+            decodedValues = null;
+        } else {
+            decodedValues = new DecodedValue[Math.max(1, Integer.highestOneBit(decodedCacheSize - 1) << 1)];
+        }
+    }
+
+    /**
+     * Limit the total weight (the total number of bytes of all encoded values) of this map.
+     * This only has effect if a value codec has been set.
+     * Lowering the maximum weight evicts the least recently used entries in bounded batches
+     * (the lock is released between batches) on the calling thread.
+     * @param newMaxWeight The maximum total weight.
+     */
+    public void setMaxWeight(long newMaxWeight) {
+        if (newMaxWeight < 0) {
+            throw new IllegalArgumentException("The maximum weight cannot be negative.");
+        }
+        maxWeight = newMaxWeight;
+        flushLRU(0);
+    }
+
+    /** If the values are only softly referenced. */
+    @Getter private boolean softValues = false;
+
+    /** Where the garbage collector puts the soft values it has cleared. */
+    private transient ReferenceQueue<Object> collectedValues = null;
+
+    /** The maximum number of collected values that are purged with each put. */
+    static final int PURGE_BATCH_SIZE = 100;
+
+    /**
+     * A value (or the encoded form of it) that may be cleared by the garbage collector.
+     */
+    private static final class SoftValue extends SoftReference<Object> {
+        private final Object storedKey;
+        private final int weight;
+
+        SoftValue(Object storedKey, Object referent, int weight, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.storedKey = storedKey;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Only hold the values via a SoftReference so the garbage collector can reclaim them under memory pressure.
+     * The entries of which the value was cleared are removed (with cause COLLECTED) a few at a time
+     * during later puts and until then a get for such an entry returns null.
+     * The capacity and maximum weight still apply as usual.
+     * The cache of decoded values (see setValueCodec) is not used with soft values.
+     * NOTE: A map with soft values cannot be serialized.
+     * @param newSoftValues true to use soft values.
+     */
+    public synchronized void setSoftValues(boolean newSoftValues) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("The soft values can only be changed when the map is empty.");
+        }
+        softValues = newSoftValues;
+        collectedValues = newSoftValues ? new ReferenceQueue<>() : null;
+    }
+
+    private Object encodeValue(Object storedKey, V value) {
+        if (value == null) {
+            return null;
+        }
+        Object storedValue = valueCodec == null ? value : valueCodec.encode(value);
+        if (softValues) {
+            return new SoftValue(storedKey, storedValue, weightOf(storedValue), collectedValues);
         }
-        return Math.abs(hashCode) % hashLookup.length;
+        return storedValue;
     }
 
-    private int hashIndex(Object key) {
-        return hashIndex(cleanHashCode(key));
+    private static int weightOf(Object storedValue) {
+        if (storedValue instanceof byte[]) {
+            return ((byte[]) storedValue).length;
+        }
+        if (storedValue instanceof SoftValue) {
+            return ((SoftValue) storedValue).weight;
+        }
+        return 0;
     }
 
-    /** Raw map of all elements. */
-    private final HashMap<K, LRUEntry<K, V>> allEntries;
+    // If it is a soft value then the actual stored value (null if it was cleared).
+    private static Object unwrapSoftValue(Object storedValue) {
+        if (storedValue instanceof SoftValue) {
+            return ((SoftValue) storedValue).get();
+        }
+        return storedValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V decodeValue(Object storedValue) {
+        storedValue = unwrapSoftValue(storedValue);
+        if (valueCodec == null || storedValue == null) {
+            return (V) storedValue;
+        }
+        return valueCodec.decode((byte[]) storedValue);
+    }
+
+    /**
+     * @return The actual value of this entry (using the cache of decoded values if possible).
+     */
+    private V valueOf(LRUEntry<K, V> lruEntry) {
+        Object storedValue = unwrapSoftValue(lruEntry.getStoredValue());
+        DecodedValue<V>[] decoded = decodedValues;
+        // With soft values the cache would keep the hot values strongly reachable so they could never be cleared.
+        if (decoded == null || softValues || storedValue == null) {
+            return decodeValue(storedValue);
+        }
+        byte[] encoded = (byte[]) storedValue;
+        int slot = lruEntry.getHash() & (decoded.length - 1);
+        DecodedValue<V> decodedValue = decoded[slot];
+        if (decodedValue == null || decodedValue.encoded != encoded) {
+            decodedValue = new DecodedValue<>(encoded, decodeValue(encoded));
+            decoded[slot] = decodedValue;
+        }
+        return decodedValue.value;
+    }
 
 
 
     static class LRUEntry<K extends Serializable, V extends Serializable> implements Serializable {
-        /** The key */
-        @Getter private final K key;
-        /** The value */
-        @Getter private V value;
+        /** The key as it is stored (either the actual key or the fingerprint of the key) */
+        @Getter private final Object storedKey;
+        /** The value as it is stored (either the actual value or the encoded form of the value) */
+        @Getter private Object storedValue;
 
         private long lastTouchTimestamp;
 
-        @Getter private final SameHashIndexMap<K,V> mySameHashIndexMap;
+        /** When the value was last written (or the last failed refresh) */
+        private long writeTimestamp;
 
-        public LRUEntry(SameHashIndexMap<K,V> mySameHashIndexMap, K key, V value) {
-            this.mySameHashIndexMap = mySameHashIndexMap;
-            this.mySameHashIndexMap.put(key, this);
-            this.value = value;
-            this.key = key;
-            touch();
+        /** 1 while a refresh of the value is running */
+        private volatile int refreshing = 0;
+
+        private static final AtomicIntegerFieldUpdater<LRUEntry> REFRESHING =
+            AtomicIntegerFieldUpdater.newUpdater(LRUEntry.class, "refreshing");
+
+        /** The spread hash of the stored key */
+        @Getter private final int hash;
+
+        public LRUEntry(int hash, Object storedKey, Object storedValue) {
+            this.hash = hash;
+            this.storedValue = storedValue;
+            this.storedKey = storedKey;
+            writeTimestamp = touch();
+        }
+
+        boolean startRefresh() {
+            return REFRESHING.compareAndSet(this, 0, 1);
+        }
+
+        void refreshDone() {
+            refreshing = 0;
         }
 
-        public void touch() {
-            lastTouchTimestamp = System.nanoTime();
+        /**
+         * @return The key (only valid if the actual key is stored).
+         */
+        @SuppressWarnings("unchecked")
+        public K getKey() {
+            return storedKey == NullKey.INSTANCE ? null : (K) storedKey;
         }
 
-        public V setValue(final V newValue) {
-            final V old = this.value;
-            this.value = newValue;
+        public long touch() {
+            long now = System.nanoTime();
+            lastTouchTimestamp = now;
+            return now;
+        }
+
+        public Object setStoredValue(final Object newStoredValue) {
+            final Object old = this.storedValue;
+            this.storedValue = newStoredValue;
+            this.writeTimestamp = System.nanoTime();
             return old;
         }
 
@@ -89,24 +416,24 @@ public class SLRUMap<K extends Serializable, V extends Serializable> implements
             }
             final LRUEntry<?, ?> other = (LRUEntry<?, ?>) obj;
             return
-                (getKey()   == null ? other.getKey()   == null : getKey().equals(other.getKey())) &&
-                (getValue() == null ? other.getValue() == null : getValue().equals(other.getValue()));
+                (getStoredKey() == null ? other.getStoredKey() == null : getStoredKey().equals(other.getStoredKey())) &&
+                Objects.deepEquals(getStoredValue(), other.getStoredValue());
         }
 
         @Override
         public int hashCode() {
-            return (getKey()   == null ? 0 : getKey().hashCode()) ^
-                   (getValue() == null ? 0 : getValue().hashCode());
+            return (getStoredKey() == null ? 0 : getStoredKey().hashCode()) ^
+                   Arrays.deepHashCode(new Object[]{getStoredValue()});
         }
 
         @Override
         public String toString() {
-            return "{" + getKey() + '=' + getValue() + " : ["+lastTouchTimestamp+"]}";
+            return "{" + getStoredKey() + '=' + getStoredValue() + " : ["+lastTouchTimestamp+"]}";
         }
     }
 
-    private static class SameHashIndexMap<K extends Serializable, V extends Serializable> extends HashMap<K, LRUEntry<K, V>> {
-        /** The hash code of the key */
+    private static class SameHashIndexMap<K extends Serializable, V extends Serializable> extends HashMap<Object, LRUEntry<K, V>> {
+        /** The index of this bucket in the hash based lookup */
         protected int index;
 
         public SameHashIndexMap(int index) {
@@ -120,7 +447,7 @@ public class SLRUMap<K extends Serializable, V extends Serializable> implements
         }
 
         @Override
-        public synchronized LRUEntry<K, V> put(K key, LRUEntry<K, V> value) {
+        public synchronized LRUEntry<K, V> put(Object key, LRUEntry<K, V> value) {
             return super.put(key, value);
         }
 
@@ -167,12 +494,156 @@ public class SLRUMap<K extends Serializable, V extends Serializable> implements
             throw new IllegalArgumentException("The capacity may not exceed " + MAXIMUM_CAPACITY + " because this will have an awful performance.");
         }
 
+        if (!(loadFactor > 0)) {
+            throw new IllegalArgumentException("The load factor must be a positive number.");
+        }
+
         capacity = newCapacity;
-        hashLookup = new SameHashIndexMap[(int) (capacity / loadFactor)];
-        allEntries = new HashMap<>(capacity, loadFactor);
+        this.loadFactor = loadFactor;
+        // Both start small and grow with the actual number of entries.
+        hashLookup = new SameHashIndexMap[INITIAL_HASH_LOOKUP_SIZE];
+        allEntries = new ConcurrentHashMap<>(INITIAL_HASH_LOOKUP_SIZE, loadFactor);
         this.flushSize = flushSize;
     }
 
+    /**
+     * @return The number of buckets in the hash based lookup.
+     */
+    int getHashLookupSize() {
+        return hashLookup.length;
+    }
+
+    private static <K extends Serializable, V extends Serializable> LRUEntry<K, V> findEntry(SameHashIndexMap<K, V>[] lookup, int hash, Object storedKey) {
+        SameHashIndexMap<K, V> sameHashIndexMap = lookup[hashIndex(hash, lookup)];
+        if (sameHashIndexMap != null) {
+            // This one IS synchronized
+            return sameHashIndexMap.get(storedKey);
+        }
+        return null;
+    }
+
+    private static <K extends Serializable, V extends Serializable> void addToLookup(SameHashIndexMap<K, V>[] lookup, LRUEntry<K, V> lruEntry) {
+        int index = hashIndex(lruEntry.getHash(), lookup);
+        SameHashIndexMap<K, V> sameHashIndexMap = lookup[index];
+        if (sameHashIndexMap == null) {
+            // New entry with a previously unused hash index.
+            sameHashIndexMap = new SameHashIndexMap<>(index);
+            sameHashIndexMap.put(lruEntry.getStoredKey(), lruEntry);
+            lookup[index] = sameHashIndexMap;
+        } else {
+            sameHashIndexMap.put(lruEntry.getStoredKey(), lruEntry);
+        }
+    }
+
+    private static <K extends Serializable, V extends Serializable> void removeFromLookup(SameHashIndexMap<K, V>[] lookup, LRUEntry<K, V> lruEntry) {
+        int index = hashIndex(lruEntry.getHash(), lookup);
+        SameHashIndexMap<K, V> sameHashIndexMap = lookup[index];
+        if (sameHashIndexMap == null) {
+            return;
+        }
+        sameHashIndexMap.remove(lruEntry.getStoredKey());
+        if (sameHashIndexMap.isEmpty()) {
+            lookup[index] = null;
+        }
+    }
+
+    // Must be called while holding the lock.
+    private void addToIndex(LRUEntry<K, V> lruEntry) {
+        SameHashIndexMap<K, V>[] lookup = hashLookup;
+        addToLookup(lookup, lruEntry);
+        // If the bucket was already moved to the new lookup it must be added there too.
+        if (nextHashLookup != null && hashIndex(lruEntry.getHash(), lookup) < movedBuckets) {
+            addToLookup(nextHashLookup, lruEntry);
+        }
+    }
+
+    // Must be called while holding the lock.
+    private void removeFromIndex(LRUEntry<K, V> lruEntry) {
+        SameHashIndexMap<K, V>[] lookup = hashLookup;
+        removeFromLookup(lookup, lruEntry);
+        if (nextHashLookup != null && hashIndex(lruEntry.getHash(), lookup) < movedBuckets) {
+            removeFromLookup(nextHashLookup, lruEntry);
+        }
+    }
+
+    /**
+     * Resize the hash based lookup in small steps.
+     * A new lookup (double the size if it is too full, smaller if it has become far too big) is filled
+     * a few buckets at a time and when it is complete it replaces the current lookup.
+     * Must be called while holding the lock.
+     * @param bucketsToMove The maximum number of buckets that are moved in this step.
+     * @return true if (more) resizing is needed.
+     */
+    @SuppressWarnings("unchecked") // Because of Generic array creation
+    private boolean resizeIndexIfNeeded(int bucketsToMove) {
+        SameHashIndexMap<K, V>[] lookup = hashLookup;
+        if (nextHashLookup == null) {
+            int wantedLookupSize = wantedHashLookupSize(lookup.length);
+            if (wantedLookupSize == lookup.length) {
+                return false;
+            }
+            nextHashLookup = new SameHashIndexMap[wantedLookupSize];
+            movedBuckets = 0;
+        }
+
+        int lastBucket = (int) Math.min(lookup.length, (long) movedBuckets + bucketsToMove);
+        for (; movedBuckets < lastBucket; movedBuckets++) {
+            SameHashIndexMap<K, V> sameHashIndexMap = lookup[movedBuckets];
+            if (sameHashIndexMap != null) {
+                synchronized (sameHashIndexMap) {
+                    for (LRUEntry<K, V> lruEntry : sameHashIndexMap.values()) {
+                        addToLookup(nextHashLookup, lruEntry);
+                    }
+                }
+            }
+        }
+
+        if (movedBuckets < lookup.length) {
+            return true;
+        }
+        // All entries are present in the new lookup.
+        boolean shrunk = nextHashLookup.length < lookup.length;
+        hashLookup = nextHashLookup;
+        nextHashLookup = null;
+        movedBuckets = 0;
+        if (shrunk) {
+            shrinkAllEntriesIfNeeded();
+        }
+        // A resize that was started before the capacity was reduced may have produced the wrong size.
+        return wantedHashLookupSize(hashLookup.length) != hashLookup.length;
+    }
+
+    private int wantedHashLookupSize(int lookupSize) {
+        int size = allEntries.size();
+        if (size > lookupSize * loadFactor) {
+            return lookupSize < MAXIMUM_HASH_LOOKUP_SIZE ? lookupSize << 1 : lookupSize;
+        }
+        if (lookupSize > INITIAL_HASH_LOOKUP_SIZE && size < lookupSize * loadFactor / 4) {
+            // Shrink to half full (like right after growing) so it does not grow again right away.
+            int wantedLookupSize = INITIAL_HASH_LOOKUP_SIZE;
+            while (wantedLookupSize < lookupSize && wantedLookupSize * loadFactor < 2.0 * size) {
+                wantedLookupSize <<= 1;
+            }
+            return wantedLookupSize;
+        }
+        return lookupSize;
+    }
+
+    // Replace allEntries with a (right sized) copy if it holds far less entries than its table was made for.
+    // Must be called while holding the lock.
+    private void shrinkAllEntriesIfNeeded() {
+        ConcurrentHashMap<Object, LRUEntry<K, V>> entries = allEntries;
+        int size = entries.size();
+        if (allEntriesPeakSize <= INITIAL_HASH_LOOKUP_SIZE || size >= allEntriesPeakSize / 4) {
+            return;
+        }
+        // Lockless readers and iterators that still use the old one see the same entries as the copy.
+        ConcurrentHashMap<Object, LRUEntry<K, V>> copy = new ConcurrentHashMap<>(Math.max(INITIAL_HASH_LOOKUP_SIZE, size), loadFactor);
+        copy.putAll(entries);
+        allEntries = copy;
+        allEntriesPeakSize = size;
+    }
+
     @Override
     public int size() {
         return allEntries.size();
@@ -182,28 +653,58 @@ public class SLRUMap<K extends Serializable, V extends Serializable> implements
         return capacity;
     }
 
+    /**
+     * Change the maximum number of entries.
+     * Growing is cheap, shrinking does a single scan to find the least recently used entries and evicts
+     * those in bounded batches (the lock is released between batches) on the calling thread.
+     * After that the internal lookup structures are shrunk to fit the remaining entries (also in bounded steps).
+     * @param newCapacity The new maximum number of entries.
+     */
+    public void setCapacity(int newCapacity) {
+        if (newCapacity < 0) {
+            throw new IllegalArgumentException("The capacity cannot be negative.");
+        }
+        if (newCapacity > MAXIMUM_CAPACITY) {
+            throw new IllegalArgumentException("The capacity may not exceed " + MAXIMUM_CAPACITY + " because this will have an awful performance.");
+        }
+        capacity = newCapacity;
+        flushLRU(0);
+        // Give the memory of the (now far too big) lookup back, again without holding the lock for long.
+        boolean resizing = true;
+        while (resizing) {
+            synchronized (this) {
+                resizing = resizeIndexIfNeeded(RESIZE_BUCKETS_PER_STEP);
+            }
+        }
+    }
+
     @Override
     public boolean isEmpty() {
         return allEntries.isEmpty();
     }
 
     @Override
-    public synchronized boolean containsKey(Object key) {
-        return allEntries.containsKey(key);
+    public boolean containsKey(Object key) {
+        Object storedKey = storedKey(key);
+        return storedKey != null && allEntries.containsKey(storedKey);
     }
 
     @Override
-    public synchronized boolean containsValue(Object value) {
-        return allEntries.containsValue(value);
+    public boolean containsValue(Object value) {
+        for (LRUEntry<K, V> lruEntry : allEntries.values()) {
+            if (Objects.equals(value, valueOf(lruEntry))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private LRUEntry<K, V> findHashEntry(Object key) {
-        SameHashIndexMap<K, V> sameHashIndexMap = hashLookup[hashIndex(key)];
-        if (sameHashIndexMap != null) {
-            // This one IS synchronized
-            return sameHashIndexMap.get(key);
+        Object storedKey = storedKey(key);
+        if (storedKey == null) {
+            return null;
         }
-        return null;
+        return findEntry(hashLookup, spreadHash(storedKey), storedKey);
     }
 
     @Override
@@ -212,137 +713,788 @@ public class SLRUMap<K extends Serializable, V extends Serializable> implements
         if (lruEntry == null) {
             return null;
         }
-        lruEntry.touch();
-        return lruEntry.getValue();
+        long now = lruEntry.touch();
+        V value = valueOf(lruEntry);
+
+        RefreshPolicy<K, V> refresh = refreshPolicy;
+        if (refresh != null && now - lruEntry.writeTimestamp > refresh.refreshAfterNanos) {
+            startRefresh(refresh, lruEntry);
+        }
+        return value;
     }
 
-    @Override
-    public synchronized V put(K key, V value) {
-        int index = hashIndex(key);
-        SameHashIndexMap<K, V> sameHashIndexMap = hashLookup[index];
+    // ------------------------------------------
 
-        if (sameHashIndexMap == null) {
-            // New entry with a previously unused hash value.
-            sameHashIndexMap = new SameHashIndexMap<>(index);
-            LRUEntry<K, V> lruEntry = new LRUEntry<>(sameHashIndexMap, key, value);
-            allEntries.put(key, lruEntry);
-            hashLookup[index] = sameHashIndexMap;
-            aChangeHappened();
-            return null;
+    /** How values are refreshed after they have been in the map for a while. */
+    private static final class RefreshPolicy<K, V> {
+        private final long refreshAfterNanos;
+        private final Function<K, V> loader;
+        private final Executor executor;
+
+        RefreshPolicy(long refreshAfterNanos, Function<K, V> loader, Executor executor) {
+            this.refreshAfterNanos = refreshAfterNanos;
+            this.loader = loader;
+            this.executor = executor;
         }
+    }
 
-        // So we have existing entry/ies for this hashValue.
-        LRUEntry<K, V> lruEntry = sameHashIndexMap.get(key);
-        if (lruEntry == null) {
-            // We do not have this specific key yet
-            lruEntry = new LRUEntry<>(sameHashIndexMap, key, value);
-//            sameHashValueMap.put(key, hashEntry);
-            allEntries.put(key, lruEntry);
+    /** The refresh policy (null = values are never refreshed). */
+    private transient volatile RefreshPolicy<K, V> refreshPolicy = null;
+
+    /**
+     * Refresh the values that have been in the map longer than the refresh interval.
+     * The first get of such a value still returns the current (stale) value immediately
+     * and starts a single reload of the value via the loader on the executor.
+     * Until the reload has completed all other gets also return the current value.
+     * So the number of reloads is bound by the number of distinct keys, not by the number of requests.
+     * If the executor rejects the reload (i.e. a bounded executor is full) the reload is tried again with a later get.
+     * If the loader fails the exception is passed to the uncaught exception handler of the thread and
+     * the next attempt is done after another refresh interval.
+     * If the loader returns null the current value is kept.
+     * @param refreshAfter After how long a value must be refreshed.
+     * @param loader The function that computes the new value for a key.
+     * @param executor The executor that runs the loader (preferably bounded).
+     */
+    public synchronized void setRefreshAfterWrite(Duration refreshAfter, Function<K, V> loader, Executor executor) {
+        if (keyStorage != KeyStorage.FULL_KEY) {
+            throw new IllegalStateException("Refreshing values requires the keys to be retained.");
+        }
+        if (refreshAfter.isNegative()) {
+            throw new IllegalArgumentException("The refresh interval cannot be negative.");
+        }
+        refreshPolicy = new RefreshPolicy<>(
+            refreshAfter.toNanos(),
+            Objects.requireNonNull(loader),
+            Objects.requireNonNull(executor));
+    }
+
+    /**
+     * Stop refreshing values.
+     */
+    public synchronized void disableRefresh() {
+        refreshPolicy = null;
+    }
+
+    private void startRefresh(RefreshPolicy<K, V> refresh, LRUEntry<K, V> lruEntry) {
+        if (!lruEntry.startRefresh()) {
+            return; // Already being refreshed
+        }
+        // The value that is being refreshed; a put in the meantime wins from the reload.
+        Object refreshedStoredValue = lruEntry.getStoredValue();
+        try {
+            refresh.executor.execute(() -> refresh(refresh, lruEntry, refreshedStoredValue));
+        } catch (RejectedExecutionException e) {
+            // Keep serving the current value and try again later.
+            lruEntry.refreshDone();
+        }
+    }
+
+    private void refresh(RefreshPolicy<K, V> refresh, LRUEntry<K, V> lruEntry, Object refreshedStoredValue) {
+        try {
+            V newValue = refresh.loader.apply(lruEntry.getKey());
+            if (newValue != null) {
+                refreshed(lruEntry, refreshedStoredValue, newValue);
+            }
+        } catch (RuntimeException e) {
+            // Do not retry before the next refresh interval has passed.
+            lruEntry.writeTimestamp = System.nanoTime();
+            // Never let a failing reload break the get that triggered it (i.e. with a direct executor).
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        } finally {
+            lruEntry.refreshDone();
+        }
+    }
+
+    // Store the refreshed value only if the entry is still in the map and still has the value that was refreshed.
+    private void refreshed(LRUEntry<K, V> lruEntry, Object refreshedStoredValue, V newValue) {
+        Object storedKey = lruEntry.getStoredKey();
+        Object storedValue = encodeValue(storedKey, newValue);
+        Object oldStoredValue;
+        RemovalDelivery<K, V> delivery;
+        synchronized (this) {
+            if (allEntries.get(storedKey) != lruEntry) {
+                return; // Removed (or removed and added again) in the meantime.
+            }
+            if (lruEntry.getStoredValue() != refreshedStoredValue) {
+                return; // Explicitly put in the meantime: that value is newer than the reloaded one.
+            }
+            oldStoredValue = lruEntry.setStoredValue(storedValue);
+            weight += weightOf(storedValue) - weightOf(oldStoredValue);
+            delivery = removalDelivery;
+        }
+
+        // Outside the lock
+        if (weight > maxWeight) {
             aChangeHappened();
-            return null;
+        }
+        if (delivery != null) {
+            notifyRemoval(delivery, new PendingRemoval<>(lruEntry.getKey(), oldStoredValue), RemovalCause.REPLACED);
+        }
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public V put(K key, V value) {
+        boolean measurePut = targetEvictionFraction > 0;
+        long putStart = measurePut ? System.nanoTime() : 0;
+        Object storedKey = storedKey(key);
+        if (storedKey == null) {
+            throw new IllegalArgumentException("Only CharSequence and byte[] keys are supported when using " + keyStorage);
+        }
+        Object storedValue = encodeValue(storedKey, value);
+        int hash = spreadHash(storedKey);
+
+        boolean isNewEntry;
+        Object oldStoredValue;
+        RemovalDelivery<K, V> delivery;
+        List<PendingRemoval<K>> collected;
+        synchronized (this) {
+            delivery = removalDelivery;
+            collected = purgeCollectedValues(PURGE_BATCH_SIZE, delivery != null);
+            LRUEntry<K, V> lruEntry = findEntry(hashLookup, hash, storedKey);
+            isNewEntry = lruEntry == null;
+            if (isNewEntry) {
+                // We do not have this specific key yet
+                lruEntry = new LRUEntry<>(hash, storedKey, storedValue);
+                addToIndex(lruEntry);
+                allEntries.put(storedKey, lruEntry);
+                allEntriesPeakSize = Math.max(allEntriesPeakSize, allEntries.size());
+                weight += weightOf(storedValue);
+                resizeIndexIfNeeded(RESIZE_BUCKETS_PER_PUT);
+                oldStoredValue = null;
+            } else {
+                // We already have this key, so we only need to replace the value.
+                oldStoredValue = lruEntry.setStoredValue(storedValue);
+                weight += weightOf(storedValue) - weightOf(oldStoredValue);
+            }
         }
 
-        // We already have this key, so we only need to replace the value.
-        return lruEntry.setValue(value);
+        // Outside the lock
+        if (measurePut) {
+            // Only the put itself, the flush is measured separately.
+            putNanosSinceFlush.add(System.nanoTime() - putStart);
+        }
+        if (isNewEntry || weight > maxWeight) {
+            aChangeHappened();
+        }
+        if (collected != null) {
+            notifyRemovals(delivery, collected, RemovalCause.COLLECTED);
+        }
+        if (!isNewEntry && delivery != null) {
+            notifyRemoval(delivery, new PendingRemoval<>(keyOf(key), oldStoredValue), RemovalCause.REPLACED);
+        }
+        return decodeValue(oldStoredValue);
     }
 
     @Override
-    public synchronized V remove(Object key) {
-        int index = hashIndex(key);
-        Map<K, LRUEntry<K, V>> sameHashValueMap = hashLookup[index];
+    public V remove(Object key) {
+        LRUEntry<K, V> removed = removeStoredKey(storedKey(key));
+        return removed == null ? null : decodeValue(removed.getStoredValue());
+    }
 
-        if (sameHashValueMap == null) {
+    /**
+     * @return The removed entry (null if there was no such entry).
+     */
+    private LRUEntry<K, V> removeStoredKey(Object storedKey) {
+        if (storedKey == null) {
             return null;
         }
+        LRUEntry<K, V> lruEntry;
+        RemovalDelivery<K, V> delivery;
+        synchronized (this) {
+            lruEntry = findEntry(hashLookup, spreadHash(storedKey), storedKey);
+
+            if (lruEntry == null) {
+                // It does not exist in the map
+                return null;
+            }
 
-        LRUEntry<K, V> lruEntry = sameHashValueMap.get(key);
+            // Found it.
+            removeFromIndex(lruEntry);
+            allEntries.remove(storedKey);
+            weight -= weightOf(lruEntry.getStoredValue());
+            delivery = removalDelivery;
+        }
 
-        if (lruEntry == null) {
-            // It does not exist in the map
+        // Outside the lock
+        if (delivery != null) {
+            notifyRemoval(delivery, new PendingRemoval<>(keyOf(lruEntry), lruEntry.getStoredValue()), RemovalCause.EXPLICIT);
+        }
+        return lruEntry;
+    }
+
+    /**
+     * Remove the entries of which the soft value was cleared by the garbage collector.
+     * Must be called while holding the lock.
+     * @param maxEntries The maximum number of cleared values to handle.
+     * @param report If the removed entries must be returned.
+     * @return The removed entries (null if there are none or they are not to be reported).
+     */
+    private List<PendingRemoval<K>> purgeCollectedValues(int maxEntries, boolean report) {
+        if (collectedValues == null) {
             return null;
         }
+        List<PendingRemoval<K>> purged = null;
+        for (int i = 0; i < maxEntries; i++) {
+            SoftValue softValue = (SoftValue) collectedValues.poll();
+            if (softValue == null) {
+                break;
+            }
+            LRUEntry<K, V> lruEntry = allEntries.get(softValue.storedKey);
+            if (lruEntry == null || lruEntry.getStoredValue() != softValue) {
+                continue; // Already removed or it has a new value
+            }
+            removeFromIndex(lruEntry);
+            allEntries.remove(softValue.storedKey);
+            weight -= softValue.weight;
+            if (report) {
+                if (purged == null) {
+                    purged = new ArrayList<>();
+                }
+                purged.add(new PendingRemoval<>(keyOf(lruEntry), null));
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Behave as if the garbage collector has cleared all soft values.
+     */
+    synchronized void clearAllSoftValues() {
+        for (LRUEntry<K, V> lruEntry : allEntries.values()) {
+            if (lruEntry.getStoredValue() instanceof SoftValue) {
+                ((SoftValue) lruEntry.getStoredValue()).enqueue();
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+    /** The listener that is informed about all removed entries and the executor used to call it. */
+    private static final class RemovalDelivery<K, V> {
+        private final RemovalListener<K, V> listener;
+        private final Executor executor;
+
+        RemovalDelivery(RemovalListener<K, V> listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    /** How removed entries are delivered (null = they are not). */
+    private transient RemovalDelivery<K, V> removalDelivery = null;
+
+    /**
+     * Inform the listener about all entries that are removed, the listener is called via the common ForkJoinPool.
+     * @param listener The listener (null to remove the listener).
+     */
+    public void setRemovalListener(RemovalListener<K, V> listener) {
+        setRemovalListener(listener, ForkJoinPool.commonPool());
+    }
 
-        // Found it.
-        sameHashValueMap.remove(key);
-        allEntries.remove(key);
-        if (sameHashValueMap.isEmpty()) {
-            hashLookup[index] = null;
+    /**
+     * Inform the listener about all entries that are removed.
+     * The listener is called via the provided executor and this is only done after the lock of the map
+     * has been released so a slow listener does not slow down the map (unless the executor blocks).
+     * A value is only decoded (if a value codec is used) when the listener is called.
+     * An exception thrown by the listener is passed to the uncaught exception handler of the thread that called it.
+     * If the keys are not retained the key in the notification is always null.
+     * @param listener The listener (null to remove the listener).
+     * @param executor The executor used to call the listener.
+     */
+    public synchronized void setRemovalListener(RemovalListener<K, V> listener, Executor executor) {
+        removalDelivery = listener == null ? null : new RemovalDelivery<>(listener, Objects.requireNonNull(executor));
+    }
+
+    private static final class PendingRemoval<K> {
+        private final K key;
+        private final Object storedValue;
+
+        PendingRemoval(K key, Object storedValue) {
+            this.key = key;
+            this.storedValue = storedValue;
         }
-        return lruEntry.getValue();
     }
 
+    // The key as it can be given to a removal listener.
+    private K keyOf(K key) {
+        return keyStorage == KeyStorage.FULL_KEY ? key : null;
+    }
+
+    private K keyOf(LRUEntry<K, V> lruEntry) {
+        return keyStorage == KeyStorage.FULL_KEY ? lruEntry.getKey() : null;
+    }
+
+    private void notifyRemoval(RemovalDelivery<K, V> delivery, PendingRemoval<K> removal, RemovalCause cause) {
+        notifyRemovals(delivery, Collections.singletonList(removal), cause);
+    }
+
+    // Must be called without holding the lock.
+    private void notifyRemovals(RemovalDelivery<K, V> delivery, List<PendingRemoval<K>> removals, RemovalCause cause) {
+        if (removals.isEmpty()) {
+            return;
+        }
+        try {
+            delivery.executor.execute(() -> {
+                for (PendingRemoval<K> removal : removals) {
+                    try {
+                        delivery.listener.onRemoval(new RemovalNotification<>(removal.key, decodeValue(removal.storedValue), cause));
+                    } catch (RuntimeException e) {
+                        // Make sure the other notifications are still delivered and never let a failing listener
+                        // break the operation on the map that has already been done (i.e. with a direct executor).
+                        reportFailure(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The map has already been changed (and an eviction must continue with the next batch).
+            reportFailure(e);
+        }
+    }
+
+    private static void reportFailure(RuntimeException e) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    // ------------------------------------------
+
     public int aChangeHappened() {
-        return flushLRU(getFlushSize());
+        // A single batch to avoid a latency spike on a put while the capacity is being reduced.
+        return flushAfterChange(1);
     }
 
     public static final int DEFAULT_FLUSH_SIZE = 100;
-    @Getter private final int flushSize;
+    @Getter private volatile int flushSize;
 
     /**
-     * Make sure the LRU follows the configured maximum number of entries.
+     * Use a fixed flushSize (this disables the adaptive flushSize).
+     * @param newFlushSize The number of entries the map may exceed the capacity before the least recently used are removed.
+     */
+    public synchronized void setFlushSize(int newFlushSize) {
+        targetEvictionFraction = 0;
+        flushSize = Math.max(0, newFlushSize);
+    }
+
+    // The target fraction of the time spent in put that may be spent on evicting entries (0 = a fixed flushSize is used).
+    @Getter private volatile double targetEvictionFraction = 0;
+    // The upper limit for the adaptive flushSize.
+    private int maxFlushSize = 0;
+    // The time spent in put (excluding the flushes) since the previous flush after a change.
+    private final LongAdder putNanosSinceFlush = new LongAdder();
+
+    /**
+     * Let the flushSize adapt itself to the measured costs of evicting entries.
+     * Removing the least recently used entries requires a scan of all entries, so the costs of
+     * a flush are largely independent of the number of entries removed.
+     * The time spent in each put is measured and after each flush the time spent on the flush is compared
+     * with the time spent in the puts since the previous flush (idle time between puts does not count)
+     * and the flushSize is adjusted to get closer to the target fraction.
+     * @param newTargetEvictionFraction The target fraction (0 &lt; fraction &lt; 1) of the time spent in put that may be spent on evicting entries.
+     * @param newMaxFlushSize The maximum number of entries the map may exceed the capacity.
+     */
+    public synchronized void setAdaptiveFlushSize(double newTargetEvictionFraction, int newMaxFlushSize) {
+        if (!(newTargetEvictionFraction > 0 && newTargetEvictionFraction < 1)) {
+            throw new IllegalArgumentException("The target eviction fraction must be between 0 and 1.");
+        }
+        if (newMaxFlushSize < 0) {
+            throw new IllegalArgumentException("The maximum flush size cannot be negative.");
+        }
+        targetEvictionFraction = newTargetEvictionFraction;
+        maxFlushSize = newMaxFlushSize;
+        flushSize = Math.min(flushSize, maxFlushSize);
+        putNanosSinceFlush.reset();
+    }
+
+    /**
+     * Do the flush that is needed after a change and (if enabled) adapt the flushSize.
+     * @param maxBatches The maximum number of batches to do.
+     * @return How may were removed.
+     */
+    protected int flushAfterChange(int maxBatches) {
+        if (targetEvictionFraction <= 0) {
+            return flushLRU(getFlushSize(), maxBatches);
+        }
+        long start = System.nanoTime();
+        int removed = flushLRU(getFlushSize(), maxBatches);
+        if (removed > 0) {
+            adaptFlushSize(start, System.nanoTime());
+        }
+        return removed;
+    }
+
+    private synchronized void adaptFlushSize(long flushStartNanos, long flushEndNanos) {
+        double target = targetEvictionFraction;
+        if (target <= 0) {
+            return;
+        }
+        long putNanos = putNanosSinceFlush.sumThenReset();
+        if (putNanos > 0) {
+            // The ratio of eviction time to (the rest of the) put time that meets the target.
+            double wantedRatio = target / (1 - target);
+            double ratio = (double) (flushEndNanos - flushStartNanos) / putNanos;
+            int currentFlushSize = flushSize;
+            // The costs of a flush are spread over (flushSize + 1) new entries.
+            double wantedFlushSize = (currentFlushSize + 1) * ratio / wantedRatio - 1;
+            // Only go halfway to dampen the effect of noisy measurements.
+            double newFlushSize = (currentFlushSize + wantedFlushSize) / 2;
+            flushSize = (int) Math.max(0, Math.min(maxFlushSize, Math.round(newFlushSize)));
+        }
+    }
+
+    /**
+     * @param minFlushSize The number of entries the map may exceed the capacity.
+     * @return true if the map exceeds the capacity or the maximum weight (which is allowed to
+     *         overshoot by the weight of about minFlushSize average entries).
+     */
+    protected boolean needsFlush(int minFlushSize) {
+        if (size() > capacity + minFlushSize) {
+            return true;
+        }
+        long currentWeight = weight;
+        if (currentWeight <= maxWeight) {
+            return false;
+        }
+        int currentSize = size();
+        long averageWeight = currentSize == 0 ? 0 : currentWeight / currentSize;
+        return currentWeight - maxWeight > minFlushSize * averageWeight;
+    }
+
+    private int entriesToRemove() {
+        int currentSize = size();
+        int entriesToRemove = currentSize - capacity;
+        long excessWeight = weight - maxWeight;
+        if (excessWeight > 0 && currentSize > 0) {
+            long averageWeight = Math.max(1, weight / currentSize);
+            entriesToRemove = (int) Math.max(entriesToRemove, Math.min(currentSize, (excessWeight + averageWeight - 1) / averageWeight));
+        }
+        return entriesToRemove;
+    }
+
+    /**
+     * Make sure the LRU follows the configured maximum number of entries and the maximum weight.
      * @return How may were removed.
      */
     public int flushLRU(int minFlushSize) {
+        return flushLRU(minFlushSize, Integer.MAX_VALUE);
+    }
+
+    /** The number of scans of all entries that were done to find the entries to evict. */
+    private transient volatile long evictionScans = 0;
+
+    long getEvictionScans() {
+        return evictionScans;
+    }
+
+    /**
+     * Make sure the LRU follows the configured maximum number of entries and the maximum weight.
+     * A single scan of all entries selects the entries for all batches that are needed and then each
+     * batch removes at most EVICTION_BATCH_SIZE (or flushSize + 1 if that is larger) of those entries while holding the lock.
+     * Entries that were used (or removed) after the scan are skipped.
+     * @param minFlushSize The number of entries the map may exceed the capacity before anything is removed.
+     * @param maxBatches The maximum number of batches to do.
+     * @return How may were removed.
+     */
+    public int flushLRU(int minFlushSize, int maxBatches) {
         minFlushSize = Math.max(0, minFlushSize);
+        int batchSize = Math.max(EVICTION_BATCH_SIZE, minFlushSize + 1);
         int removed = 0;
-        while (size() > capacity + minFlushSize) {
+        int batches = 0;
+        while (batches < maxBatches && needsFlush(minFlushSize)) {
+            List<LRUEntry<K, V>> victims;
+            long selectedAt;
             synchronized (this) {
-                PriorityQueue<LRUEntry<K, V>> toRemove = new PriorityQueue<>(Comparator.comparingLong(o -> - o.lastTouchTimestamp));
-                int entriesToRemove = size() - capacity;
+                int entriesToRemove = entriesToRemove();
+                if (entriesToRemove <= 0) {
+                    break; // Someone else already did the work.
+                }
+                // Only select what the remaining batches can remove.
+                int entriesToSelect = (int) Math.min(entriesToRemove, (long) batchSize * (maxBatches - batches));
+                selectedAt = System.nanoTime();
+                victims = oldestFirst(selectOldest(entriesToSelect));
+                evictionScans++;
+            }
 
-                for (LRUEntry<K, V> lruEntry : allEntries.values()) {
-                    toRemove.add(lruEntry);
-                    if (toRemove.size() > entriesToRemove) {
-                        toRemove.remove();
-                    }
+            for (int first = 0; first < victims.size() && batches < maxBatches; first += batchSize, batches++) {
+                removed += evict(victims.subList(first, Math.min(victims.size(), first + batchSize)), selectedAt);
+            }
+        }
+        return removed;
+    }
+
+    private static <K extends Serializable, V extends Serializable> List<LRUEntry<K, V>> oldestFirst(PriorityQueue<LRUEntry<K, V>> oldest) {
+        List<LRUEntry<K, V>> sorted = new ArrayList<>(oldest.size());
+        while (!oldest.isEmpty()) {
+            sorted.add(oldest.poll()); // The youngest comes first
+        }
+        Collections.reverse(sorted);
+        return sorted;
+    }
+
+    // Removes a single batch of the selected entries and informs the listener after the lock has been released.
+    private int evict(List<LRUEntry<K, V>> victims, long selectedAt) {
+        int removed = 0;
+        RemovalDelivery<K, V> delivery;
+        List<PendingRemoval<K>> evicted;
+        synchronized (this) {
+            delivery = removalDelivery;
+            evicted = delivery == null ? null : new ArrayList<>(victims.size());
+            for (LRUEntry<K, V> entry : victims) {
+                if (entry.lastTouchTimestamp > selectedAt || allEntries.get(entry.getStoredKey()) != entry) {
+                    continue; // Used or removed after it was selected.
                 }
+                removeFromIndex(entry);
+                allEntries.remove(entry.getStoredKey());
+                weight -= weightOf(entry.getStoredValue());
+                if (evicted != null) {
+                    evicted.add(new PendingRemoval<>(keyOf(entry), entry.getStoredValue()));
+                }
+                removed++;
+            }
+        }
 
-                for (LRUEntry<K, V> entry : toRemove) {
-                    K key = entry.getKey();
-                    SameHashIndexMap<K, V> sameHashIndexMap = entry.getMySameHashIndexMap();
-                    sameHashIndexMap.remove(key);
-                    allEntries.remove(key);
-                    if (sameHashIndexMap.isEmpty()) {
-                        hashLookup[sameHashIndexMap.index] = null;
-                    }
+        // Outside the lock
+        if (delivery != null) {
+            notifyRemovals(delivery, evicted, RemovalCause.SIZE);
+        }
+        return removed;
+    }
+
+    // ------------------------------------------
+
+    /** The pool used to find the oldest entries in parallel (null = never in parallel). */
+    private transient ForkJoinPool parallelEvictionPool = null;
+
+    /** The minimal number of entries before the oldest entries are searched in parallel. */
+    @Getter private int parallelEvictionThreshold = Integer.MAX_VALUE;
+
+    /** The minimal number of entries scanned by a single task in a parallel search. */
+    static final int MINIMAL_EVICTION_PARTITION_SIZE = 1024;
+
+    /**
+     * For very large maps finding the oldest entries (a scan of all entries) is the dominant cost of a put.
+     * With this the scan is split over the threads of the provided pool if the map has at least the
+     * threshold number of entries. Each part of the scan keeps its own set of the oldest entries
+     * and these are merged at the end.
+     * @param pool The pool to use (null = disable the parallel search)
+     * @param threshold The minimal number of entries in the map to do the search in parallel.
+     */
+    public synchronized void setParallelEviction(ForkJoinPool pool, int threshold) {
+        parallelEvictionPool = pool;
+        parallelEvictionThreshold = pool == null ? Integer.MAX_VALUE : Math.max(0, threshold);
+    }
+
+    private static <K extends Serializable, V extends Serializable> PriorityQueue<LRUEntry<K, V>> newOldestQueue(int entriesToSelect) {
+        // The head of the queue is the youngest of the selected entries.
+        return new PriorityQueue<>(Math.min(entriesToSelect + 1, 1024), Comparator.comparingLong(o -> - o.lastTouchTimestamp));
+    }
+
+    private static <K extends Serializable, V extends Serializable> void addIfOldEnough(PriorityQueue<LRUEntry<K, V>> oldest, int entriesToSelect, LRUEntry<K, V> lruEntry) {
+        oldest.add(lruEntry);
+        if (oldest.size() > entriesToSelect) {
+            oldest.remove();
+        }
+    }
 
-                    removed++;
-                    if (--entriesToRemove == 0) {
-                        break;
+    // Must be called while holding the lock.
+    private PriorityQueue<LRUEntry<K, V>> selectOldest(int entriesToSelect) {
+        ForkJoinPool pool = parallelEvictionPool;
+        int currentSize = allEntries.size();
+        if (pool != null && currentSize >= parallelEvictionThreshold) {
+            int partitionSize = Math.max(MINIMAL_EVICTION_PARTITION_SIZE, currentSize / (4 * pool.getParallelism()));
+            return pool.invoke(new SelectOldestTask<>(allEntries.values().spliterator(), entriesToSelect, partitionSize));
+        }
+
+        PriorityQueue<LRUEntry<K, V>> oldest = newOldestQueue(entriesToSelect);
+        for (LRUEntry<K, V> lruEntry : allEntries.values()) {
+            addIfOldEnough(oldest, entriesToSelect, lruEntry);
+        }
+        return oldest;
+    }
+
+    /**
+     * Finds the oldest entries in a part of all entries by splitting it further as long as it is big enough.
+     */
+    private static final class SelectOldestTask<K extends Serializable, V extends Serializable> extends RecursiveTask<PriorityQueue<LRUEntry<K, V>>> {
+        private final Spliterator<LRUEntry<K, V>> entries;
+        private final int entriesToSelect;
+        private final int partitionSize;
+
+        SelectOldestTask(Spliterator<LRUEntry<K, V>> entries, int entriesToSelect, int partitionSize) {
+            this.entries = entries;
+            this.entriesToSelect = entriesToSelect;
+            this.partitionSize = partitionSize;
+        }
+
+        @Override
+        protected PriorityQueue<LRUEntry<K, V>> compute() {
+            if (entries.estimateSize() > partitionSize) {
+                Spliterator<LRUEntry<K, V>> otherPart = entries.trySplit();
+                if (otherPart != null) {
+                    SelectOldestTask<K, V> otherTask = new SelectOldestTask<>(otherPart, entriesToSelect, partitionSize);
+                    otherTask.fork();
+                    PriorityQueue<LRUEntry<K, V>> oldest = compute();
+                    PriorityQueue<LRUEntry<K, V>> otherOldest = otherTask.join();
+                    // Merge the smaller into the bigger one.
+                    if (otherOldest.size() > oldest.size()) {
+                        PriorityQueue<LRUEntry<K, V>> swap = oldest;
+                        oldest = otherOldest;
+                        otherOldest = swap;
+                    }
+                    for (LRUEntry<K, V> lruEntry : otherOldest) {
+                        addIfOldEnough(oldest, entriesToSelect, lruEntry);
                     }
+                    return oldest;
                 }
             }
+
+            PriorityQueue<LRUEntry<K, V>> oldest = newOldestQueue(entriesToSelect);
+            entries.forEachRemaining(lruEntry -> addIfOldEnough(oldest, entriesToSelect, lruEntry));
+            return oldest;
         }
-        return removed;
     }
 
+    // ------------------------------------------
+
     @Override
     public void putAll(Map<? extends K, ? extends V> copy) {
         copy.forEach(this::put);
     }
 
     @Override
-    public synchronized void clear() {
-        // Wipe the map
-        allEntries.clear();
-        // Full wipe of the array.
-        Arrays.fill(hashLookup, null);
+    @SuppressWarnings("unchecked") // Because of Generic array creation
+    public void clear() {
+        RemovalDelivery<K, V> delivery;
+        List<PendingRemoval<K>> cleared = null;
+        synchronized (this) {
+            delivery = removalDelivery;
+            if (delivery != null) {
+                cleared = new ArrayList<>(allEntries.size());
+                for (LRUEntry<K, V> lruEntry : allEntries.values()) {
+                    cleared.add(new PendingRemoval<>(keyOf(lruEntry), lruEntry.getStoredValue()));
+                }
+            }
+            // Wipe the map
+            allEntries = new ConcurrentHashMap<>(INITIAL_HASH_LOOKUP_SIZE, loadFactor);
+            allEntriesPeakSize = 0;
+            weight = 0;
+            // Start again with a small lookup.
+            hashLookup = new SameHashIndexMap[INITIAL_HASH_LOOKUP_SIZE];
+            nextHashLookup = null;
+            movedBuckets = 0;
+        }
+
+        // Outside the lock
+        if (delivery != null) {
+            notifyRemovals(delivery, cleared, RemovalCause.EXPLICIT);
+        }
     }
 
     /**
-     * Don't use this. Much too slow.
+     * Iterates over the live entries without holding the lock.
+     * Like the iterators of a ConcurrentHashMap these are weakly consistent: they never throw a
+     * ConcurrentModificationException and may (or may not) reflect the changes made while iterating.
+     */
+    private abstract class LiveIterator<T> implements Iterator<T> {
+        private final Iterator<LRUEntry<K, V>> entries = allEntries.values().iterator();
+        private LRUEntry<K, V> last = null;
+
+        abstract T map(LRUEntry<K, V> lruEntry);
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public T next() {
+            last = entries.next();
+            return map(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException("No current element");
+            }
+            removeStoredKey(last.getStoredKey());
+            last = null;
+        }
+    }
+
+    /**
+     * A weakly consistent live view of the keys (does not hold the lock, does not copy).
      */
     @Override
-    public synchronized Set<K> keySet() {
-        return allEntries.keySet();
+    public Set<K> keySet() {
+        failIfKeysAreNotRetained();
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new LiveIterator<>() {
+                    @Override
+                    K map(LRUEntry<K, V> lruEntry) {
+                        return lruEntry.getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SLRUMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+
+            @Override
+            public boolean remove(Object key) {
+                // Also true if the value of the removed entry was null.
+                return removeStoredKey(storedKey(key)) != null;
+            }
+
+            @Override
+            public void clear() {
+                SLRUMap.this.clear();
+            }
+        };
     }
 
     /**
-     * Don't use this. Much too slow.
+     * A weakly consistent live view of the values (does not hold the lock, does not copy).
      */
     @Override
-    public synchronized Collection<V> values() {
-        return allEntries.values().stream().map(LRUEntry::getValue).collect(Collectors.toList());
+    public Collection<V> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new LiveIterator<>() {
+                    @Override
+                    V map(LRUEntry<K, V> lruEntry) {
+                        return valueOf(lruEntry);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SLRUMap.this.size();
+            }
+
+            @Override
+            public boolean contains(Object value) {
+                return containsValue(value);
+            }
+
+            @Override
+            public void clear() {
+                SLRUMap.this.clear();
+            }
+        };
     }
 
     @AllArgsConstructor
@@ -356,6 +1508,23 @@ public class SLRUMap<K extends Serializable, V extends Serializable> implements
             throw new UnsupportedOperationException("Read only instance");
         }
 
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> that = (Entry<?, ?>) o;
+            return Objects.equals(key, that.getKey()) && Objects.equals(value, that.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
         @Override
         public String toString() {
             return "\nTmpEntry{" +
@@ -367,23 +1536,126 @@ public class SLRUMap<K extends Serializable, V extends Serializable> implements
     }
 
     /**
-     * Don't use this. Much too slow.
+     * A weakly consistent live view of the entries (does not hold the lock, does not copy).
+     * The returned entries are read only snapshots of the entry at the moment they were retrieved.
+     */
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        failIfKeysAreNotRetained();
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new LiveIterator<>() {
+                    @Override
+                    Entry<K, V> map(LRUEntry<K, V> lruEntry) {
+                        return new TmpEntry<>(lruEntry.getKey(), valueOf(lruEntry), lruEntry.lastTouchTimestamp);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return SLRUMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                SLRUMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Calls the action for all entries without holding the lock and without copying (weakly consistent).
+     * This does not change the recency of the entries.
      */
     @Override
-    public synchronized Set<Entry<K, V>> entrySet() {
-        return allEntries
-            .entrySet()
-            .stream()
-            .map(e -> new TmpEntry<>(e.getKey(), e.getValue().getValue(), e.getValue().lastTouchTimestamp))
-            .collect(Collectors.toSet());
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        failIfKeysAreNotRetained();
+        for (LRUEntry<K, V> lruEntry : allEntries.values()) {
+            action.accept(lruEntry.getKey(), valueOf(lruEntry));
+        }
+    }
+
+    private static final class RankedEntry<K extends Serializable, V extends Serializable> {
+        private final LRUEntry<K, V> lruEntry;
+        private final long timestamp; // Snapshot because the real one can change at any moment.
+
+        RankedEntry(LRUEntry<K, V> lruEntry, long timestamp) {
+            this.lruEntry = lruEntry;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * The most recently used entries, most recently used first.
+     * This does not hold the lock and only needs memory for the requested number of entries.
+     * To warm up a different map with these put them in the reverse order (least recently used first).
+     * @param n The maximum number of entries to return.
+     * @return The entries (read only snapshots), most recently used first.
+     */
+    public List<Entry<K, V>> hottest(int n) {
+        return inRecencyOrder(n, true);
+    }
+
+    /**
+     * The least recently used entries, least recently used first.
+     * This does not hold the lock and only needs memory for the requested number of entries.
+     * @param n The maximum number of entries to return.
+     * @return The entries (read only snapshots), least recently used first.
+     */
+    public List<Entry<K, V>> coldest(int n) {
+        return inRecencyOrder(n, false);
+    }
+
+    private List<Entry<K, V>> inRecencyOrder(int n, boolean hottestFirst) {
+        failIfKeysAreNotRetained();
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+
+        Comparator<RankedEntry<K, V>> order = Comparator.comparingLong(e -> e.timestamp);
+        if (hottestFirst) {
+            order = order.reversed();
+        }
+
+        // The head of this queue is the entry that is the first to be pushed out of the selection.
+        // Sized on the map (not on n) so a huge n does not allocate a huge (or negative sized) array.
+        PriorityQueue<RankedEntry<K, V>> selection = new PriorityQueue<>(Math.min(n, size()) + 1, order.reversed());
+        for (LRUEntry<K, V> lruEntry : allEntries.values()) {
+            long timestamp = lruEntry.lastTouchTimestamp;
+            if (selection.size() == n) {
+                long worst = selection.peek().timestamp;
+                if (hottestFirst ? timestamp <= worst : timestamp >= worst) {
+                    continue; // Would be pushed out immediately.
+                }
+                selection.poll();
+            }
+            selection.add(new RankedEntry<>(lruEntry, timestamp));
+        }
+
+        List<RankedEntry<K, V>> ranked = new ArrayList<>(selection);
+        ranked.sort(order);
+        List<Entry<K, V>> result = new ArrayList<>(ranked.size());
+        for (RankedEntry<K, V> rankedEntry : ranked) {
+            LRUEntry<K, V> lruEntry = rankedEntry.lruEntry;
+            result.add(new TmpEntry<>(lruEntry.getKey(), valueOf(lruEntry), rankedEntry.timestamp));
+        }
+        return result;
     }
 
     @Override
     public synchronized String toString() {
         return "SLRUMap{" +
             "capacity=" + capacity +
+            ", keyStorage=" + keyStorage +
             ", allEntries=" + allEntries +
             ", flushSize=" + flushSize +
+            ", targetEvictionFraction=" + targetEvictionFraction +
+            ", softValues=" + softValues +
+            ", weight=" + weight +
+            ", maxWeight=" + maxWeight +
             '}';
     }
 }
@@ -18,17 +18,25 @@ public class SLRUMapBackgroundFlush<K extends Serializable, V extends Serializab
 
     AtomicBoolean flushIsRunning = new AtomicBoolean(false);
 
+    /**
+     * @return true if a background flush is running at this moment.
+     */
+    public boolean isFlushRunning() {
+        return flushIsRunning.get();
+    }
+
     @Override
     public int aChangeHappened() {
-        int flushSize = getFlushSize();
-        if (size() > getCapacity() + flushSize) {
+        if (needsFlush(getFlushSize())) {
             if (flushIsRunning.compareAndSet(false, true)) {
                 new Thread(() -> {
                     try {
-                        flushLRU(flushSize);
+                        flushAfterChange(Integer.MAX_VALUE);
                     } finally {
                         flushIsRunning.set(false);
                     }
+                    // A change that happened just before the flag was cleared did not start a flush.
+                    aChangeHappened();
                 }).start();
             }
         }
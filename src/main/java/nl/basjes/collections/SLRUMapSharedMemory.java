@@ -0,0 +1,85 @@
+package nl.basjes.collections;
+
+import java.io.Serializable;
+
+/**
+ * An SLRUMap with a second (larger) tier in a SharedMemoryTable that is shared with other processes on the same host.
+ * <p>
+ * A get that misses the local map looks in the shared table (and keeps a hit locally).
+ * A put, remove and clear are also done on the shared table.
+ * All other operations (size, iteration, ...) only see the local map.
+ * @param <K> The type of the key
+ * @param <V> The type of the value
+ */
+public class SLRUMapSharedMemory<K extends Serializable, V extends Serializable> extends SLRUMap<K, V> {
+
+    private final transient SharedMemoryTable<K, V> sharedTable;
+
+    public SLRUMapSharedMemory(int newCapacity, SharedMemoryTable<K, V> sharedTable) {
+        super(newCapacity);
+        this.sharedTable = sharedTable;
+    }
+
+    public SLRUMapSharedMemory(int newCapacity, int flushSize, SharedMemoryTable<K, V> sharedTable) {
+        super(newCapacity, flushSize);
+        this.sharedTable = sharedTable;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked") // A key of a different type can never be in the shared table anyway.
+    public V get(Object key) {
+        V value = super.get(key);
+        if (value != null || key == null || sharedTable == null) {
+            return value;
+        }
+        try {
+            value = sharedTable.get((K) key);
+        } catch (ClassCastException e) {
+            return null;
+        }
+        if (value != null) {
+            // Only locally: it is already in the shared table.
+            super.put((K) key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V oldValue = super.put(key, value);
+        if (sharedTable != null && key != null) {
+            if (value == null) {
+                // The shared table cannot hold a null so it must not hold an older value either.
+                sharedTable.remove(key);
+            } else {
+                sharedTable.put(key, value);
+            }
+        }
+        return oldValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        V oldValue = super.remove(key);
+        if (sharedTable != null && key != null) {
+            try {
+                sharedTable.remove((K) key);
+            } catch (ClassCastException e) {
+                // Cannot be in the shared table.
+            }
+        }
+        return oldValue;
+    }
+
+    /**
+     * Clears the local map AND the shared table (so for all processes).
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        if (sharedTable != null) {
+            sharedTable.clear();
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package nl.basjes.collections;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A fixed size hash table in a memory mapped file that can be used by several processes on the same host at the same time.
+ * <p>
+ * The table consists of buckets of a fixed number of fixed size slots.
+ * A key can only be stored in the slots of the bucket its hash points to and if all those slots are in use the
+ * least recently used slot of that bucket is overwritten (so it is 'sort of' LRU per bucket).
+ * <p>
+ * Each slot starts with a sequence number (seqlock):
+ * an even sequence means the slot is stable, an odd sequence means a writer is changing it.
+ * A reader copies the slot and only uses the copy if the sequence number was even and did not change while copying.
+ * <p>
+ * A writer first becomes the owner of the slot by storing its process id with a compare-and-set and only then makes
+ * the sequence odd. When done it first makes the sequence even again and only then gives up the ownership.
+ * So a slot that is being written always has an owner, also if the writer dies at any point in between.
+ * A slot is only taken over from an owner if that process no longer exists (a slow, paused or stuck writer is never
+ * taken over) and the sequence is only changed with a compare-and-set so a writer that was taken over can never make
+ * a partially written entry visible.
+ * This assumes all processes that share the file see the same process ids (i.e. are in the same PID namespace).
+ * <p>
+ * Slot layout (all longs are 8 byte aligned):
+ * <pre>
+ *   0: long sequence    (0 = never used, odd = being written)
+ *   8: long keyHash     (64 bit hash of the encoded key)
+ *  16: long lastTouch   (System.currentTimeMillis() which is comparable between processes)
+ *  24: int  keyLength   (-1 = empty)
+ *  28: int  valueLength
+ *  32: long owner       (the process id of the writer, 0 if nobody is writing)
+ *  40: the encoded key followed by the encoded value
+ * </pre>
+ * @param <K> The type of the key
+ * @param <V> The type of the value
+ */
+public class SharedMemoryTable<K, V> implements Closeable {
+
+    private static final long MAGIC = 0x534C525553484D31L; // "SLRUSHM1"
+    private static final int  LAYOUT_VERSION = 3;
+
+    private static final int HEADER_SIZE          = 64;
+    private static final int HEADER_MAGIC         = 0;
+    private static final int HEADER_VERSION       = 8;
+    private static final int HEADER_BUCKETS       = 12;
+    private static final int HEADER_SLOTS         = 16;
+    private static final int HEADER_SLOT_SIZE     = 20;
+
+    private static final int SLOT_SEQUENCE        = 0;
+    private static final int SLOT_KEY_HASH        = 8;
+    private static final int SLOT_LAST_TOUCH      = 16;
+    private static final int SLOT_KEY_LENGTH      = 24;
+    private static final int SLOT_VALUE_LENGTH    = 28;
+    private static final int SLOT_OWNER           = 32;
+    private static final int SLOT_DATA            = 40;
+
+    private static final long CURRENT_PID = ProcessHandle.current().pid();
+
+    private static final long KEY_HASH_SEED = 0x3C6EF372FE94F82BL;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS  = MethodHandles.byteBufferViewVarHandle(int[].class,  ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /** The number of buckets (a power of 2) */
+    @Getter private final int buckets;
+    /** The number of slots per bucket */
+    @Getter private final int slotsPerBucket;
+    /** The number of bytes per slot (a multiple of 8) */
+    @Getter private final int slotSize;
+
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+
+    /**
+     * Open (and create if needed) a shared table.
+     * All processes that use the same file must use the same layout and codecs.
+     * @param file The file to map (preferably on a memory based filesystem like /dev/shm).
+     * @param buckets The number of buckets (rounded up to a power of 2).
+     * @param slotsPerBucket The number of slots per bucket.
+     * @param slotSize The number of bytes per slot (rounded up to a multiple of 8), this limits the size of the encoded key and value.
+     * @param keyCodec The codec for the keys.
+     * @param valueCodec The codec for the values.
+     * @throws IOException If the file cannot be opened or was created with a different layout.
+     */
+    public SharedMemoryTable(Path file, int buckets, int slotsPerBucket, int slotSize, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        if (buckets <= 0 || slotsPerBucket <= 0) {
+            throw new IllegalArgumentException("There must be at least 1 bucket with 1 slot.");
+        }
+        if (slotSize <= SLOT_DATA) {
+            throw new IllegalArgumentException("The slot size must be larger than " + SLOT_DATA);
+        }
+        this.buckets = buckets == 1 ? 1 : Integer.highestOneBit(buckets - 1) << 1;
+        this.slotsPerBucket = slotsPerBucket;
+        this.slotSize = (slotSize + 7) & ~7;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+
+        long fileSize = HEADER_SIZE + (long) this.buckets * this.slotsPerBucket * this.slotSize;
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The shared table may not exceed " + Integer.MAX_VALUE + " bytes.");
+        }
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Only one process at a time may initialize (or validate) the file.
+            try (FileLock ignored = channel.lock()) {
+                if (channel.size() != 0 && channel.size() != fileSize) {
+                    throw new IOException("The shared table " + file + " has a different size (" + channel.size() + " instead of " + fileSize + ").");
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+                long magic = (long) LONGS.getVolatile(buffer, HEADER_MAGIC);
+                if (magic == 0) {
+                    // A new file (which is all zeros)
+                    buffer.putInt(HEADER_VERSION,   LAYOUT_VERSION);
+                    buffer.putInt(HEADER_BUCKETS,   this.buckets);
+                    buffer.putInt(HEADER_SLOTS,     this.slotsPerBucket);
+                    buffer.putInt(HEADER_SLOT_SIZE, this.slotSize);
+                    LONGS.setVolatile(buffer, HEADER_MAGIC, MAGIC);
+                } else if (magic != MAGIC ||
+                    buffer.getInt(HEADER_VERSION)   != LAYOUT_VERSION ||
+                    buffer.getInt(HEADER_BUCKETS)   != this.buckets ||
+                    buffer.getInt(HEADER_SLOTS)     != this.slotsPerBucket ||
+                    buffer.getInt(HEADER_SLOT_SIZE) != this.slotSize) {
+                    throw new IOException("The shared table " + file + " has a different layout.");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The maximum number of bytes of the encoded key and value combined.
+     */
+    public int getMaxEntrySize() {
+        return slotSize - SLOT_DATA;
+    }
+
+    int slotOffset(int bucket, int slot) {
+        return HEADER_SIZE + (bucket * slotsPerBucket + slot) * slotSize;
+    }
+
+    private int bucketOf(long keyHash) {
+        return (int) (keyHash ^ (keyHash >>> 32)) & (buckets - 1);
+    }
+
+    private long sequence(int offset) {
+        return (long) LONGS.getAcquire(buffer, offset + SLOT_SEQUENCE);
+    }
+
+    private void readBytes(int offset, byte[] target) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(target);
+    }
+
+    private void writeBytes(int offset, byte[] source) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.put(source);
+    }
+
+    /**
+     * Copy the value of the slot if (at the moment of copying) it contains the key.
+     * @return The encoded value or null if the slot does not (reliably) contain the key.
+     */
+    private byte[] readIfKey(int offset, long keyHash, byte[] keyBytes) {
+        long sequence = sequence(offset);
+        if (sequence == 0 || (sequence & 1) == 1) {
+            return null; // Empty or being written
+        }
+        if ((long) LONGS.get(buffer, offset + SLOT_KEY_HASH) != keyHash) {
+            return null;
+        }
+        int keyLength   = (int) INTS.get(buffer, offset + SLOT_KEY_LENGTH);
+        int valueLength = (int) INTS.get(buffer, offset + SLOT_VALUE_LENGTH);
+        if (keyLength != keyBytes.length || valueLength < 0 || keyLength + valueLength > getMaxEntrySize()) {
+            return null;
+        }
+        byte[] storedKey = new byte[keyLength];
+        byte[] storedValue = new byte[valueLength];
+        readBytes(offset + SLOT_DATA, storedKey);
+        readBytes(offset + SLOT_DATA + keyLength, storedValue);
+
+        VarHandle.loadLoadFence();
+        if (sequence(offset) != sequence) {
+            return null; // Changed while copying
+        }
+        if (!Arrays.equals(storedKey, keyBytes)) {
+            return null;
+        }
+        return storedValue;
+    }
+
+    long keyHash(byte[] keyBytes) {
+        return hash(keyBytes, KEY_HASH_SEED);
+    }
+
+    private static final long C1 = 0x87C37B91114253D5L;
+    private static final long C2 = 0x4CF5AD432745937FL;
+
+    // A fast (but NOT collision resistant) MurmurHash3 (x64) style hash that processes 8 bytes per round.
+    // All processes must find a key in the same bucket so this cannot be keyed with a per process secret.
+    private static long hash(byte[] bytes, long seed) {
+        int length = bytes.length;
+        long hash = seed ^ length;
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            long block = 0;
+            for (int b = 7; b >= 0; b--) {
+                block = (block << 8) | (bytes[i + b] & 0xFFL);
+            }
+            hash = mix(hash, block);
+        }
+        long tail = 0;
+        for (int shift = 0; i < length; i++, shift += 8) {
+            tail |= (bytes[i] & 0xFFL) << shift;
+        }
+        return finalMix(mix(hash, tail));
+    }
+
+    private static long mix(long hash, long block) {
+        block *= C1;
+        block = Long.rotateLeft(block, 31);
+        block *= C2;
+        hash ^= block;
+        return Long.rotateLeft(hash, 27) * 5 + 0x52DCE729;
+    }
+
+    private static long finalMix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @param key The key to look for.
+     * @return The value or null if it is not present.
+     */
+    public V get(K key) {
+        byte[] keyBytes = keyCodec.encode(key);
+        long keyHash = keyHash(keyBytes);
+        int bucket = bucketOf(keyHash);
+        for (int slot = 0; slot < slotsPerBucket; slot++) {
+            int offset = slotOffset(bucket, slot);
+            byte[] value = readIfKey(offset, keyHash, keyBytes);
+            if (value != null) {
+                // Sloppy: a racing writer may overwrite this and that is fine.
+                LONGS.setOpaque(buffer, offset + SLOT_LAST_TOUCH, System.currentTimeMillis());
+                return valueCodec.decode(value);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isAlive(long pid) {
+        return pid == CURRENT_PID || ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    private long owner(int offset) {
+        return (long) LONGS.getVolatile(buffer, offset + SLOT_OWNER);
+    }
+
+    // A slot that is owned can only be taken over if the owning process no longer exists.
+    private boolean isLocked(int offset) {
+        long owner = owner(offset);
+        return owner != 0 && isAlive(owner);
+    }
+
+    /**
+     * Try to get exclusive access to the slot.
+     * @param ownerPid The process id that is stored as the owner of the slot.
+     * @return The (odd) sequence while locked or -1 if the slot could not be locked.
+     */
+    long tryLock(int offset, long ownerPid) {
+        if (!takeOwnership(offset, ownerPid)) {
+            return -1;
+        }
+        return startWriting(offset);
+    }
+
+    /**
+     * Step 1 of locking: become the owner (the sequence is not changed yet).
+     * @return false if the slot is owned by a process that is still alive (or someone else was faster).
+     */
+    boolean takeOwnership(int offset, long ownerPid) {
+        long owner = owner(offset);
+        if (owner != 0 && isAlive(owner)) {
+            return false;
+        }
+        // If the owner died we take over, if it is still (or again) the same as what we saw.
+        return LONGS.compareAndSet(buffer, offset + SLOT_OWNER, owner, ownerPid);
+    }
+
+    // Step 2 of locking: make the sequence odd. Must only be called by the owner of the slot.
+    private long startWriting(int offset) {
+        long sequence = sequence(offset);
+        // An odd sequence means the previous owner died while writing (the data is incomplete):
+        // make it different so that writer can never release it.
+        long lockedSequence = (sequence & 1) == 0 ? sequence + 1 : sequence + 2;
+        // This only fails if someone took over the slot from us and then our unlock fails as well.
+        LONGS.compareAndSet(buffer, offset + SLOT_SEQUENCE, sequence, lockedSequence);
+        return lockedSequence;
+    }
+
+    /**
+     * Make the changes visible and release the slot.
+     * @return false if the slot was taken over by someone else (the changes are lost and the slot is not touched).
+     */
+    boolean unlock(int offset, long ownerPid, long lockedSequence) {
+        return finishWriting(offset, ownerPid, lockedSequence) &&
+            LONGS.compareAndSet(buffer, offset + SLOT_OWNER, ownerPid, 0L);
+    }
+
+    /**
+     * Step 1 of unlocking: make the sequence even (the changes become visible) while still being the owner.
+     * @return false if the slot was taken over by someone else.
+     */
+    boolean finishWriting(int offset, long ownerPid, long lockedSequence) {
+        return owner(offset) == ownerPid &&
+            LONGS.compareAndSet(buffer, offset + SLOT_SEQUENCE, lockedSequence, lockedSequence + 1);
+    }
+
+    private boolean isKey(int offset, long keyHash, byte[] keyBytes) {
+        if ((long) LONGS.getOpaque(buffer, offset + SLOT_KEY_HASH) != keyHash ||
+            (int) INTS.getOpaque(buffer, offset + SLOT_KEY_LENGTH) != keyBytes.length) {
+            return false;
+        }
+        byte[] storedKey = new byte[keyBytes.length];
+        readBytes(offset + SLOT_DATA, storedKey);
+        return Arrays.equals(storedKey, keyBytes);
+    }
+
+    /**
+     * Store the value (overwriting the least recently used entry of the bucket if needed).
+     * @param key The key
+     * @param value The value (must not be null)
+     * @return true if it was stored, false if it was too big or all candidate slots were being written by others.
+     */
+    public boolean put(K key, V value) {
+        byte[] keyBytes = keyCodec.encode(key);
+        byte[] valueBytes = valueCodec.encode(value);
+        if (keyBytes.length + valueBytes.length > getMaxEntrySize()) {
+            return false;
+        }
+        long keyHash = keyHash(keyBytes);
+        int bucket = bucketOf(keyHash);
+
+        // Pick the slot: the one with the same key, else an empty one, else the least recently used one.
+        int target = -1;
+        long oldestTouch = Long.MAX_VALUE;
+        for (int slot = 0; slot < slotsPerBucket; slot++) {
+            int offset = slotOffset(bucket, slot);
+            long sequence = sequence(offset);
+            if (isLocked(offset)) {
+                continue;
+            }
+            if ((sequence & 1) == 0 && sequence != 0 && isKey(offset, keyHash, keyBytes)) {
+                target = slot;
+                break;
+            }
+            long touch = (sequence == 0 || (int) INTS.getOpaque(buffer, offset + SLOT_KEY_LENGTH) < 0) ?
+                Long.MIN_VALUE : // Empty
+                (long) LONGS.getOpaque(buffer, offset + SLOT_LAST_TOUCH);
+            if (touch < oldestTouch) {
+                oldestTouch = touch;
+                target = slot;
+            }
+        }
+
+        if (target < 0) {
+            return false; // Sloppy: all slots of the bucket are being written by others right now.
+        }
+
+        int offset = slotOffset(bucket, target);
+        long lockedSequence = tryLock(offset, CURRENT_PID);
+        if (lockedSequence < 0) {
+            return false; // Sloppy: someone else is writing this slot right now.
+        }
+        boolean written = false;
+        try {
+            writeEntry(offset, keyHash, keyBytes, valueBytes);
+            written = true;
+        } finally {
+            if (!written) {
+                // Never leave a partially written entry behind.
+                markEmpty(offset);
+            }
+            written = unlock(offset, CURRENT_PID, lockedSequence) && written;
+        }
+        return written;
+    }
+
+    // Must only be called while holding the lock of the slot.
+    void writeEntry(int offset, long keyHash, byte[] keyBytes, byte[] valueBytes) {
+        LONGS.set(buffer, offset + SLOT_KEY_HASH, keyHash);
+        LONGS.set(buffer, offset + SLOT_LAST_TOUCH, System.currentTimeMillis());
+        INTS.set(buffer, offset + SLOT_KEY_LENGTH, keyBytes.length);
+        INTS.set(buffer, offset + SLOT_VALUE_LENGTH, valueBytes.length);
+        writeBytes(offset + SLOT_DATA, keyBytes);
+        writeBytes(offset + SLOT_DATA + keyBytes.length, valueBytes);
+    }
+
+    /**
+     * Remove the key from the table.
+     * @param key The key
+     * @return true if it was removed.
+     */
+    public boolean remove(K key) {
+        byte[] keyBytes = keyCodec.encode(key);
+        long keyHash = keyHash(keyBytes);
+        int bucket = bucketOf(keyHash);
+        for (int slot = 0; slot < slotsPerBucket; slot++) {
+            int offset = slotOffset(bucket, slot);
+            if (!isKey(offset, keyHash, keyBytes)) {
+                continue;
+            }
+            long lockedSequence = tryLock(offset, CURRENT_PID);
+            if (lockedSequence < 0) {
+                return false;
+            }
+            boolean removed = false;
+            try {
+                // Check again now we own the slot.
+                if (isKey(offset, keyHash, keyBytes)) {
+                    markEmpty(offset);
+                    removed = true;
+                }
+            } finally {
+                removed = unlock(offset, CURRENT_PID, lockedSequence) && removed;
+            }
+            return removed;
+        }
+        return false;
+    }
+
+    private void markEmpty(int offset) {
+        LONGS.set(buffer, offset + SLOT_KEY_HASH, 0L);
+        INTS.set(buffer, offset + SLOT_KEY_LENGTH, -1);
+        INTS.set(buffer, offset + SLOT_VALUE_LENGTH, 0);
+    }
+
+    /**
+     * Remove all entries (for all processes that use this table).
+     * Slots that are being written at this moment are skipped.
+     */
+    public void clear() {
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            for (int slot = 0; slot < slotsPerBucket; slot++) {
+                int offset = slotOffset(bucket, slot);
+                if (sequence(offset) == 0) {
+                    continue;
+                }
+                long lockedSequence = tryLock(offset, CURRENT_PID);
+                if (lockedSequence >= 0) {
+                    markEmpty(offset);
+                    unlock(offset, CURRENT_PID, lockedSequence);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the changes to the file and closes it.
+     * NOTE: The mapping itself remains until it is garbage collected so this instance must not be used after this.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMemoryTable{" +
+            "buckets=" + buckets +
+            ", slotsPerBucket=" + slotsPerBucket +
+            ", slotSize=" + slotSize +
+            '}';
+    }
+}
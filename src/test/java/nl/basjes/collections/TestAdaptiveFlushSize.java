@@ -0,0 +1,66 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestAdaptiveFlushSize {
+
+    private static final int CAPACITY = 20_000;
+
+    @Test
+    void testAdaptiveFlushSize() {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.setAdaptiveFlushSize(0.05, 1000);
+
+        for (int i = 0; i < 5 * CAPACITY; i++) {
+            map.put("K" + i, "V" + i);
+            assertTrue(map.size() <= CAPACITY + 1000 + 1, "Too large: " + map.size());
+        }
+
+        // A full scan of 20000 entries is a lot more expensive than a single put,
+        // so evicting after every put will never stay below the target.
+        assertTrue(map.getFlushSize() > 0, "The flushSize did not grow.");
+        assertTrue(map.getFlushSize() <= 1000, "The flushSize grew too much.");
+    }
+
+    @Test
+    void testIdleTimeIsNotPutTime() throws InterruptedException {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.setAdaptiveFlushSize(0.05, 100);
+        for (int i = 0; i < 3 * CAPACITY; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        int fastFlushSize = map.getFlushSize();
+        assertTrue(fastFlushSize > 0, "The flushSize did not grow.");
+
+        // A low rate of puts does not make a scan per put any cheaper.
+        for (int i = 0; i < 400; i++) {
+            map.put("Slow" + i, "V" + i);
+            Thread.sleep(2);
+        }
+        assertTrue(map.getFlushSize() > fastFlushSize / 4,
+            "The flushSize dropped from " + fastFlushSize + " to " + map.getFlushSize() + " because of the idle time.");
+    }
+
+    @Test
+    void testBackToFixed() {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY);
+        map.setAdaptiveFlushSize(0.05, 10);
+        assertEquals(10, map.getFlushSize());
+        map.setFlushSize(42);
+        assertEquals(42, map.getFlushSize());
+        assertEquals(0, map.getTargetEvictionFraction());
+    }
+
+    @Test
+    void testBadSettings() {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY);
+        assertThrows(IllegalArgumentException.class, () -> map.setAdaptiveFlushSize(0, 10));
+        assertThrows(IllegalArgumentException.class, () -> map.setAdaptiveFlushSize(1, 10));
+        assertThrows(IllegalArgumentException.class, () -> map.setAdaptiveFlushSize(0.1, -1));
+    }
+
+}
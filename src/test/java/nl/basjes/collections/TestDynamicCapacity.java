@@ -0,0 +1,67 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestDynamicCapacity {
+
+    @Test
+    void testGrow() {
+        SLRUMap<String, String> map = new SLRUMap<>(5, 0);
+        for (int i = 0; i < 5; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        map.setCapacity(10);
+        for (int i = 5; i < 10; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        assertEquals(10, map.size());
+        assertEquals("V0", map.get("K0"));
+    }
+
+    @Test
+    void testShrink() {
+        int entries = 3 * SLRUMap.EVICTION_BATCH_SIZE;
+        SLRUMap<String, String> map = new SLRUMap<>(entries, 0);
+        for (int i = 0; i < entries; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        assertEquals(entries, map.size());
+
+        map.setCapacity(100);
+        assertEquals(100, map.getCapacity());
+        assertEquals(100, map.size());
+        assertNull(map.get("K0"));
+        assertNotNull(map.get("K" + (entries - 1)));
+    }
+
+    @Test
+    void testShrinkScansOnce() {
+        int entries = 5 * SLRUMap.EVICTION_BATCH_SIZE;
+        SLRUMap<String, String> map = new SLRUMap<>(entries, 0);
+        for (int i = 0; i < entries; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        long scans = map.getEvictionScans();
+
+        // Several batches but all selected by a single scan
+        map.setCapacity(100);
+        assertEquals(100, map.size());
+        assertEquals(scans + 1, map.getEvictionScans());
+        assertNull(map.get("K" + (entries - 101)));
+        assertNotNull(map.get("K" + (entries - 100)));
+    }
+
+    @Test
+    void testBadCapacity() {
+        SLRUMap<String, String> map = new SLRUMap<>(5);
+        assertThrows(IllegalArgumentException.class, () -> map.setCapacity(-1));
+        assertThrows(IllegalArgumentException.class, () -> map.setCapacity(SLRUMap.MAXIMUM_CAPACITY + 1));
+        assertEquals(5, map.getCapacity());
+    }
+
+}
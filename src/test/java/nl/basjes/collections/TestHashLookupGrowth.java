@@ -0,0 +1,133 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestHashLookupGrowth {
+
+    @Test
+    void testStartsSmall() {
+        SLRUMap<String, String> map = new SLRUMap<>(SLRUMap.MAXIMUM_CAPACITY);
+        assertEquals(SLRUMap.INITIAL_HASH_LOOKUP_SIZE, map.getHashLookupSize());
+        map.put("K1", "V1");
+        assertEquals(SLRUMap.INITIAL_HASH_LOOKUP_SIZE, map.getHashLookupSize());
+    }
+
+    @Test
+    void testGrowWithUsage() {
+        SLRUMap<String, String> map = new SLRUMap<>(100_000);
+        for (int i = 0; i < 10_000; i++) {
+            map.put("K" + i, "V" + i);
+            // Remove some while the lookup is being resized.
+            if (i % 7 == 0) {
+                assertEquals("V" + (i / 2), map.remove("K" + (i / 2)));
+            }
+        }
+
+        int lookupSize = map.getHashLookupSize();
+        assertTrue(map.size() <= lookupSize * 0.75, "Lookup too small: " + lookupSize);
+        assertTrue(lookupSize <= 4 * map.size(), "Lookup too big: " + lookupSize);
+
+        for (int i = 0; i < 10_000; i++) {
+            String value = map.get("K" + i);
+            if (value != null) {
+                assertEquals("V" + i, value);
+            }
+        }
+        assertEquals(map.size(), map.values().size());
+
+        map.clear();
+        assertEquals(SLRUMap.INITIAL_HASH_LOOKUP_SIZE, map.getHashLookupSize());
+        assertNull(map.get("K1"));
+    }
+
+    @Test
+    void testShrinkWithCapacity() {
+        SLRUMap<String, String> map = new SLRUMap<>(100_000, 0);
+        for (int i = 0; i < 100_000; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        assertTrue(map.getHashLookupSize() >= 131_072, "Lookup too small: " + map.getHashLookupSize());
+
+        map.setCapacity(100);
+        assertEquals(100, map.size());
+        int lookupSize = map.getHashLookupSize();
+        assertTrue(map.size() <= lookupSize * 0.75, "Lookup too small: " + lookupSize);
+        assertTrue(lookupSize <= 8 * map.size(), "Lookup too big: " + lookupSize);
+        for (int i = 99_900; i < 100_000; i++) {
+            assertEquals("V" + i, map.get("K" + i));
+        }
+
+        // And it grows again if needed
+        map.setCapacity(10_000);
+        for (int i = 0; i < 10_000; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        assertEquals(10_000, map.size());
+        assertTrue(map.size() <= map.getHashLookupSize() * 0.75, "Lookup too small: " + map.getHashLookupSize());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals("V" + i, map.get("K" + i));
+        }
+    }
+
+    @Test
+    void testShrinkAfterRemovals() {
+        SLRUMap<String, String> map = new SLRUMap<>(100_000, 0);
+        for (int i = 0; i < 10_000; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        for (int i = 0; i < 9_990; i++) {
+            map.remove("K" + i);
+        }
+        // The puts shrink the lookup in small steps.
+        for (int i = 0; i < 10_000; i++) {
+            map.put("Again", "V" + i);
+            map.remove("Again");
+        }
+        assertEquals(10, map.size());
+        assertTrue(map.getHashLookupSize() <= 64, "Lookup too big: " + map.getHashLookupSize());
+        for (int i = 9_990; i < 10_000; i++) {
+            assertEquals("V" + i, map.get("K" + i));
+        }
+    }
+
+    @Test
+    void testReadersNeverMissWhileGrowing() throws InterruptedException {
+        SLRUMap<String, String> map = new SLRUMap<>(200_000);
+        for (int i = 0; i < 100; i++) {
+            map.put("Hot" + i, "Value" + i);
+        }
+
+        AtomicInteger misses = new AtomicInteger();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 100_000; i++) {
+                map.put("Cold" + i, "Value" + i);
+            }
+        });
+
+        Thread reader = new Thread(() -> {
+            while (writer.isAlive()) {
+                for (int i = 0; i < 100; i++) {
+                    // Touching them also prevents them from being evicted.
+                    if (map.get("Hot" + i) == null) {
+                        misses.incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+
+        assertEquals(0, misses.get());
+        assertEquals(100_100, map.size());
+    }
+
+}
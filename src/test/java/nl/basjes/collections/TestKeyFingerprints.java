@@ -0,0 +1,132 @@
+package nl.basjes.collections;
+
+import nl.basjes.collections.SLRUMap.KeyStorage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestKeyFingerprints {
+
+    private static final int CAPACITY = 5;
+
+    @ParameterizedTest(name = "Test PutGet with {0}")
+    @EnumSource(KeyStorage.class)
+    void testPutGet(KeyStorage keyStorage) {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.setKeyStorage(keyStorage);
+
+        map.put("K1", "V1");
+        map.put("K2", "V2");
+        assertEquals("V1", map.get("K1"));
+        assertEquals("V2", map.get("K2"));
+        assertNull(map.get("K3"));
+        assertTrue(map.containsKey("K1"));
+        assertFalse(map.containsKey("K3"));
+
+        assertEquals("V1", map.put("K1", "V1b"));
+        assertEquals("V1b", map.get("K1"));
+
+        assertEquals("V1b", map.remove("K1"));
+        assertNull(map.get("K1"));
+        assertEquals(1, map.size());
+    }
+
+    @ParameterizedTest(name = "Test LRU drop oldest with {0}")
+    @EnumSource(KeyStorage.class)
+    void testLRU(KeyStorage keyStorage) {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.setKeyStorage(keyStorage);
+
+        map.put("K1", "V1");
+        map.put("K2", "V2");
+        map.put("K3", "V3");
+        assertEquals("V1", map.get("K1"));
+        map.put("K4", "V4");
+        map.put("K5", "V5");
+        map.put("K6", "V6");
+
+        assertEquals(CAPACITY, map.size());
+        assertEquals("V1", map.get("K1"));
+        assertNull(map.get("K2")); // K2 must be gone now
+    }
+
+    @Test
+    void testNonTextKeys() {
+        SLRUMap<Long, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.setKeyStorage(KeyStorage.FINGERPRINT);
+
+        // There is no representation of these that reliably follows equals
+        assertThrows(IllegalArgumentException.class, () -> map.put(1L, "V1"));
+        assertNull(map.get(1L));
+        assertFalse(map.containsKey(1L));
+        assertNull(map.remove(1L));
+        assertTrue(map.isEmpty());
+    }
+
+    @ParameterizedTest(name = "Test byte[] keys with {0}")
+    @EnumSource(value = KeyStorage.class, names = {"FINGERPRINT", "VERIFIED_FINGERPRINT"})
+    void testByteArrayKeys(KeyStorage keyStorage) {
+        SLRUMap<byte[], String> map = new SLRUMap<>(CAPACITY, 0);
+        map.setKeyStorage(keyStorage);
+
+        map.put(new byte[]{1, 2, 3}, "V1");
+        assertEquals("V1", map.get(new byte[]{1, 2, 3})); // On the content, not the instance
+        assertNull(map.get(new byte[]{1, 2, 4}));
+    }
+
+    @Test
+    void testKeysAreNotAvailable() {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.setKeyStorage(KeyStorage.FINGERPRINT);
+        map.put("K1", "V1");
+        assertThrows(UnsupportedOperationException.class, map::keySet);
+        assertThrows(UnsupportedOperationException.class, map::entrySet);
+        assertEquals(1, map.values().size());
+    }
+
+    @Test
+    void testOnlyChangeWhenEmpty() {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.put("K1", "V1");
+        assertThrows(IllegalStateException.class, () -> map.setKeyStorage(KeyStorage.FINGERPRINT));
+    }
+
+    @Test
+    void testFingerprints() {
+        KeyFingerprint.Keys keys = KeyFingerprint.Keys.random();
+        assertEquals(KeyFingerprint.of("Mozilla/5.0", keys, true), KeyFingerprint.of("Mozilla/5.0", keys, true));
+        assertEquals(KeyFingerprint.of("Mozilla/5.0", keys, true), KeyFingerprint.of(new StringBuilder("Mozilla/5.0"), keys, true));
+        assertNotEquals(KeyFingerprint.of("Mozilla/5.0", keys, true), KeyFingerprint.of("Mozilla/5.1", keys, true));
+        assertNotEquals(KeyFingerprint.of("Mozilla/5.0", keys, false), KeyFingerprint.of("Mozilla/5.0", keys, true));
+        assertNotEquals(KeyFingerprint.of("", keys, false), KeyFingerprint.of("\u0000", keys, false));
+        assertNotEquals(KeyFingerprint.of("", keys, false), KeyFingerprint.of(new byte[0], keys, false));
+
+        // Each map has its own secret keys
+        assertNotEquals(KeyFingerprint.of("Mozilla/5.0", keys, false), KeyFingerprint.of("Mozilla/5.0", KeyFingerprint.Keys.random(), false));
+    }
+
+    @Test
+    void testSipHashReferenceVector() {
+        // From the SipHash paper: key 00..0f and message 00..0e
+        byte[] message = new byte[15];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) i;
+        }
+        assertEquals(0xA129CA6149BE45E5L, KeyFingerprint.sipHash(0x0706050403020100L, 0x0F0E0D0C0B0A0908L, message));
+
+        // Text is hashed as UTF-16LE
+        assertEquals(
+            KeyFingerprint.sipHash(1, 2, "Mozilla/5.0".getBytes(StandardCharsets.UTF_16LE)),
+            KeyFingerprint.sipHash(1, 2, "Mozilla/5.0"));
+    }
+
+}
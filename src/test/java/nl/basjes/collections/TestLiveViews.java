@@ -0,0 +1,111 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestLiveViews {
+
+    private static final int CAPACITY = 10;
+
+    @Test
+    void testViewsAreLive() {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        Set<String> keys = map.keySet();
+        assertTrue(keys.isEmpty());
+
+        map.put("K1", "V1");
+        map.put("K2", "V2");
+        assertEquals(Set.of("K1", "K2"), keys);
+        assertTrue(map.values().contains("V2"));
+        assertTrue(map.entrySet().contains(new SimpleEntry<>("K1", "V1")));
+
+        keys.remove("K1");
+        assertNull(map.get("K1"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void testIteratorRemove() {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.put("K1", "V1");
+        map.put("K2", "V2");
+        map.put("K3", "V3");
+
+        Iterator<String> values = map.values().iterator();
+        while (values.hasNext()) {
+            if (values.next().equals("V2")) {
+                values.remove();
+            }
+        }
+        assertEquals(Set.of("K1", "K3"), map.keySet());
+    }
+
+    @Test
+    void testKeySetRemoveNullValue() {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.put("K1", null);
+        map.put("K2", "V2");
+
+        assertTrue(map.keySet().remove("K1"));
+        assertFalse(map.containsKey("K1"));
+        assertFalse(map.keySet().remove("K1"));
+        assertTrue(map.keySet().remove("K2"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void testForEach() {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.put("K1", "V1");
+        map.put(null, "VNull");
+        map.put("K3", null);
+
+        Map<String, String> copy = new HashMap<>();
+        map.forEach(copy::put);
+        assertEquals(3, copy.size());
+        assertEquals("V1", copy.get("K1"));
+        assertEquals("VNull", copy.get(null));
+        assertTrue(copy.containsKey("K3"));
+        assertEquals("VNull", map.get(null));
+        assertTrue(map.containsKey(null));
+        assertEquals(copy, new HashMap<>(map));
+    }
+
+    @Test
+    void testIterateWhileChanging() throws InterruptedException {
+        SLRUMap<String, String> map = new SLRUMap<>(1000, 10);
+        for (int i = 0; i < 1000; i++) {
+            map.put("K" + i, "V" + i);
+        }
+
+        Thread writer = new Thread(() -> {
+            for (int i = 1000; i < 100_000; i++) {
+                map.put("K" + i, "V" + i);
+            }
+        });
+        writer.start();
+
+        AtomicInteger seen = new AtomicInteger();
+        while (writer.isAlive()) {
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                assertEquals(entry.getKey().replace('K', 'V'), entry.getValue());
+            }
+            map.forEach((key, value) -> seen.incrementAndGet());
+        }
+        writer.join();
+        assertTrue(seen.get() > 0);
+        assertFalse(map.keySet().isEmpty());
+    }
+
+}
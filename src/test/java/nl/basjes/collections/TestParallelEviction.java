@@ -0,0 +1,57 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestParallelEviction {
+
+    private static final int CAPACITY = 50_000;
+
+    private static Set<String> keysAfterEviction(ForkJoinPool pool) {
+        SLRUMap<String, String> map = new SLRUMap<>(CAPACITY, 0);
+        map.setParallelEviction(pool, 10_000);
+        for (int i = 0; i < CAPACITY; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        // Touch a subset so the oldest are not simply the first ones
+        for (int i = 0; i < CAPACITY; i += 3) {
+            map.get("K" + i);
+        }
+
+        map.setCapacity(CAPACITY - 20_000);
+        assertEquals(CAPACITY - 20_000, map.size());
+        return new HashSet<>(map.keySet());
+    }
+
+    @Test
+    void testSameAsSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(keysAfterEviction(null), keysAfterEviction(pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testBelowThreshold() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            SLRUMap<String, String> map = new SLRUMap<>(100, 0);
+            map.setParallelEviction(pool, 10_000);
+            for (int i = 0; i < 1000; i++) {
+                map.put("K" + i, "V" + i);
+            }
+            assertEquals(100, map.size());
+            assertEquals("V999", map.get("K999"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestRecencyOrder {
+
+    private static List<String> keys(List<Entry<String, String>> entries) {
+        return entries.stream().map(Entry::getKey).collect(Collectors.toList());
+    }
+
+    private static SLRUMap<String, String> filledMap() throws InterruptedException {
+        SLRUMap<String, String> map = new SLRUMap<>(100, 0);
+        for (int i = 0; i < 10; i++) {
+            map.put("K" + i, "V" + i);
+            Thread.sleep(1); // Make sure the timestamps differ on all systems.
+        }
+        map.get("K3");
+        Thread.sleep(1);
+        map.get("K1");
+        return map;
+    }
+
+    @Test
+    void testHottest() throws InterruptedException {
+        SLRUMap<String, String> map = filledMap();
+        assertEquals(List.of("K1", "K3", "K9", "K8"), keys(map.hottest(4)));
+        assertEquals("V1", map.hottest(1).get(0).getValue());
+        assertEquals(10, map.hottest(100).size());
+        assertTrue(map.hottest(0).isEmpty());
+    }
+
+    @Test
+    void testColdest() throws InterruptedException {
+        SLRUMap<String, String> map = filledMap();
+        assertEquals(List.of("K0", "K2", "K4"), keys(map.coldest(3)));
+        List<String> coldToHot = keys(map.coldest(10));
+        Collections.reverse(coldToHot);
+        assertEquals(keys(map.hottest(10)), coldToHot);
+    }
+
+    @Test
+    void testMoreThanSize() throws InterruptedException {
+        SLRUMap<String, String> map = filledMap();
+        // The memory needed depends on the map, not on the requested number.
+        assertEquals(10, map.hottest(500_000_000).size());
+        assertEquals(10, map.hottest(Integer.MAX_VALUE).size());
+        assertEquals(10, map.coldest(Integer.MAX_VALUE).size());
+        assertEquals(keys(map.hottest(10)), keys(map.hottest(Integer.MAX_VALUE)));
+    }
+
+    @Test
+    void testWarmUpCopy() throws InterruptedException {
+        SLRUMap<String, String> map = filledMap();
+
+        // Copy the hot set into a new (smaller) instance: least recently used first.
+        SLRUMap<String, String> copy = new SLRUMap<>(5, 0);
+        List<Entry<String, String>> hotSet = map.hottest(5);
+        for (int i = hotSet.size() - 1; i >= 0; i--) {
+            copy.put(hotSet.get(i).getKey(), hotSet.get(i).getValue());
+            Thread.sleep(1);
+        }
+        assertEquals(keys(hotSet), keys(copy.hottest(5)));
+    }
+
+}
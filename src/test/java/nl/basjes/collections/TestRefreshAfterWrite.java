@@ -0,0 +1,144 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestRefreshAfterWrite {
+
+    // Collects the tasks so the test decides when they run.
+    private static final class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> toRun = new ArrayList<>(tasks);
+            tasks.clear();
+            toRun.forEach(Runnable::run);
+        }
+    }
+
+    @Test
+    void testServeStaleWhileRefreshing() {
+        AtomicInteger loads = new AtomicInteger();
+        ManualExecutor executor = new ManualExecutor();
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setRefreshAfterWrite(Duration.ZERO, key -> key + "-" + loads.incrementAndGet(), executor);
+
+        map.put("K1", "V1");
+
+        // All gets get the current value immediately and only a single reload is started.
+        for (int i = 0; i < 100; i++) {
+            assertEquals("V1", map.get("K1"));
+        }
+        assertEquals(1, executor.tasks.size());
+        assertEquals(0, loads.get());
+
+        executor.runAll();
+        assertEquals(1, loads.get());
+        assertEquals("K1-1", map.get("K1"));
+        assertEquals(1, executor.tasks.size()); // The refresh interval is 0
+    }
+
+    @Test
+    void testNotBeforeInterval() {
+        ManualExecutor executor = new ManualExecutor();
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setRefreshAfterWrite(Duration.ofHours(1), key -> "New", executor);
+
+        map.put("K1", "V1");
+        assertEquals("V1", map.get("K1"));
+        assertTrue(executor.tasks.isEmpty());
+    }
+
+    @Test
+    void testRemovedWhileRefreshing() {
+        ManualExecutor executor = new ManualExecutor();
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setRefreshAfterWrite(Duration.ZERO, key -> "New", executor);
+
+        map.put("K1", "V1");
+        assertEquals("V1", map.get("K1"));
+        map.remove("K1");
+        executor.runAll();
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void testPutWhileRefreshing() {
+        ManualExecutor executor = new ManualExecutor();
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setRefreshAfterWrite(Duration.ZERO, key -> "V1-reloaded", executor);
+
+        map.put("K1", "V1");
+        assertEquals("V1", map.get("K1"));
+        assertEquals(1, executor.tasks.size());
+
+        // The explicit put is newer than what the (already started) reload returns.
+        map.put("K1", "V2-explicit");
+        executor.runAll();
+        assertEquals("V2-explicit", map.get("K1"));
+    }
+
+    @Test
+    void testRejectedAndFailingReloads() {
+        AtomicInteger attempts = new AtomicInteger();
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setRefreshAfterWrite(Duration.ZERO, key -> "New", command -> {
+            attempts.incrementAndGet();
+            throw new RejectedExecutionException("Full");
+        });
+        map.put("K1", "V1");
+        assertEquals("V1", map.get("K1"));
+        assertEquals("V1", map.get("K1"));
+        assertEquals(2, attempts.get()); // A rejected reload is tried again
+
+    }
+
+    @Test
+    void testFailingReload() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        List<Throwable> failures = new ArrayList<>();
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setRefreshAfterWrite(Duration.ofMillis(100), key -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("Broken loader");
+        }, Runnable::run);
+
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler original = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+        try {
+            map.put("K1", "V1");
+            Thread.sleep(150);
+            assertEquals("V1", map.get("K1")); // Fails (in the same thread!)
+            assertEquals("V1", map.get("K1")); // No new attempt yet
+        } finally {
+            thread.setUncaughtExceptionHandler(original);
+        }
+        assertEquals(1, attempts.get());
+        assertEquals(1, failures.size());
+        assertEquals("Broken loader", failures.get(0).getMessage());
+    }
+
+    @Test
+    void testRequiresKeys() {
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setKeyStorage(SLRUMap.KeyStorage.FINGERPRINT);
+        assertThrows(IllegalStateException.class, () -> map.setRefreshAfterWrite(Duration.ZERO, key -> key, Runnable::run));
+    }
+
+}
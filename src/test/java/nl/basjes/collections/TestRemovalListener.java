@@ -0,0 +1,183 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestRemovalListener {
+
+    private static String describe(RemovalNotification<String, String> notification) {
+        return notification.getCause() + ":" + notification.getKey() + "=" + notification.getValue();
+    }
+
+    @Test
+    void testRemovalCauses() {
+        SLRUMap<String, String> map = new SLRUMap<>(3, 0);
+        List<String> removals = new ArrayList<>();
+        map.setRemovalListener(notification -> {
+            assertFalse(Thread.holdsLock(map), "The listener must never be called while holding the lock.");
+            removals.add(describe(notification));
+        }, Runnable::run);
+
+        map.put("K1", "V1");
+        map.put("K2", "V2");
+        map.put("K3", "V3");
+        map.put("K1", "V1b");
+        map.put("K4", "V4");
+        map.remove("K3");
+        map.clear();
+
+        assertEquals(List.of(
+            "REPLACED:K1=V1",
+            "SIZE:K1=V1b", // Replacing a value does not change the recency
+            "EXPLICIT:K3=V3",
+            "EXPLICIT:K2=V2",
+            "EXPLICIT:K4=V4"
+        ), sortClear(removals));
+    }
+
+    @Test
+    void testFailingListener() {
+        SLRUMap<String, String> map = new SLRUMap<>(2, 0);
+        List<String> removals = new ArrayList<>();
+        map.setRemovalListener(notification -> {
+            removals.add(describe(notification));
+            throw new IllegalStateException("Failing listener");
+        }, Runnable::run);
+
+        List<Throwable> failures = new ArrayList<>();
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler original = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+        try {
+            // None of these may fail because the listener failed.
+            map.put("K1", "V1");
+            map.put("K2", "V2");
+            assertEquals("V1", map.put("K1", "V1b"));
+            map.put("K3", "V3");
+            assertEquals("V3", map.remove("K3"));
+        } finally {
+            thread.setUncaughtExceptionHandler(original);
+        }
+
+        assertEquals(List.of("REPLACED:K1=V1", "SIZE:K1=V1b", "EXPLICIT:K3=V3"), removals);
+        assertEquals(3, failures.size());
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void testRejectingExecutor() {
+        SLRUMap<String, String> map = new SLRUMap<>(30_000, 0);
+        map.setRemovalListener(notification -> { }, command -> {
+            throw new RejectedExecutionException("Shut down");
+        });
+
+        List<Throwable> failures = new ArrayList<>();
+        Thread thread = Thread.currentThread();
+        Thread.UncaughtExceptionHandler original = thread.getUncaughtExceptionHandler();
+        thread.setUncaughtExceptionHandler((t, e) -> failures.add(e));
+        try {
+            // None of these may fail because the notifications could not be delivered.
+            for (int i = 0; i < 25_000; i++) {
+                map.put("K" + i, "V" + i);
+            }
+            assertEquals("V1", map.put("K1", "V1b"));
+            assertEquals("V1b", map.remove("K1"));
+            // All (3) batches of the eviction must still be done.
+            map.setCapacity(100);
+        } finally {
+            thread.setUncaughtExceptionHandler(original);
+        }
+
+        assertEquals(100, map.size());
+        assertEquals(5, failures.size(), failures.toString());
+        assertTrue(failures.stream().allMatch(e -> e instanceof RejectedExecutionException), failures.toString());
+    }
+
+    // The order in which clear() reports the entries is not defined.
+    private static List<String> sortClear(List<String> removals) {
+        List<String> result = new ArrayList<>(removals.subList(0, 3));
+        List<String> cleared = new ArrayList<>(removals.subList(3, removals.size()));
+        cleared.sort(String::compareTo);
+        result.addAll(cleared);
+        return result;
+    }
+
+    @Test
+    void testEncodedValuesAndFingerprints() {
+        SLRUMap<String, String> map = new SLRUMap<>(1, 0);
+        map.setKeyStorage(SLRUMap.KeyStorage.FINGERPRINT);
+        map.setValueCodec(Codec.deflated(Codec.utf8()));
+        List<String> removals = new ArrayList<>();
+        map.setRemovalListener(notification -> removals.add(describe(notification)), Runnable::run);
+
+        map.put("K1", "V1");
+        map.put("K2", "V2");
+        assertEquals(List.of("SIZE:null=V1"), removals);
+    }
+
+    @Test
+    void testSlowListener() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> removals = new CopyOnWriteArrayList<>();
+        map.setRemovalListener(notification -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            removals.add(describe(notification));
+        }, executor);
+
+        // The listener blocks yet the map keeps working.
+        for (int i = 0; i < 100; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        assertEquals(10, map.size());
+        assertTrue(removals.isEmpty());
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(90, removals.size());
+        assertEquals("SIZE:K0=V0", removals.get(0));
+    }
+
+    @Test
+    void testPublisher() throws InterruptedException {
+        SLRUMap<String, String> map = new SLRUMap<>(1, 0);
+        List<String> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        try (SubmissionPublisher<RemovalNotification<String, String>> publisher = new SubmissionPublisher<>()) {
+            publisher.consume(notification -> {
+                received.add(describe(notification));
+                done.countDown();
+            });
+            map.setRemovalListener(publisher::submit, Runnable::run);
+            map.put("K1", "V1");
+            map.put("K2", "V2");
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("SIZE:K1=V1"), received);
+
+        map.setRemovalListener(null);
+        assertNull(map.remove("Unknown"));
+        assertEquals("V2", map.remove("K2"));
+    }
+
+}
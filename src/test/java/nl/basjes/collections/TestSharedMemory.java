@@ -0,0 +1,258 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestSharedMemory {
+
+    @TempDir
+    Path tempDir;
+
+    // Two instances on the same file behave like two processes that share the file.
+    private SharedMemoryTable<String, String> open(Path file, int buckets, int slots) throws IOException {
+        return new SharedMemoryTable<>(file, buckets, slots, 256, Codec.utf8(), Codec.utf8());
+    }
+
+    @Test
+    void testSharedPutGet() throws IOException {
+        Path file = tempDir.resolve("shared.slru");
+        try (SharedMemoryTable<String, String> first = open(file, 64, 4);
+             SharedMemoryTable<String, String> second = open(file, 64, 4)) {
+            assertTrue(first.put("K1", "V1"));
+            assertTrue(first.put("K2", "V2"));
+            assertEquals("V1", second.get("K1"));
+            assertEquals("V2", second.get("K2"));
+            assertNull(second.get("K3"));
+
+            assertTrue(second.put("K1", "V1b"));
+            assertEquals("V1b", first.get("K1"));
+
+            assertTrue(second.remove("K1"));
+            assertFalse(second.remove("K1"));
+            assertNull(first.get("K1"));
+
+            first.clear();
+            assertNull(second.get("K2"));
+        }
+    }
+
+    @Test
+    void testLeastRecentlyUsedInBucket() throws IOException, InterruptedException {
+        try (SharedMemoryTable<String, String> table = open(tempDir.resolve("lru.slru"), 1, 3)) {
+            table.put("K1", "V1");
+            Thread.sleep(2);
+            table.put("K2", "V2");
+            Thread.sleep(2);
+            table.put("K3", "V3");
+            Thread.sleep(2);
+            assertEquals("V1", table.get("K1"));
+            Thread.sleep(2);
+            table.put("K4", "V4");
+
+            assertNull(table.get("K2")); // The least recently used one
+            assertEquals("V1", table.get("K1"));
+            assertEquals("V3", table.get("K3"));
+            assertEquals("V4", table.get("K4"));
+        }
+    }
+
+    @Test
+    void testTooLarge() throws IOException {
+        try (SharedMemoryTable<String, String> table = open(tempDir.resolve("large.slru"), 4, 2)) {
+            String large = "X".repeat(table.getMaxEntrySize());
+            assertFalse(table.put("K1", large));
+            assertNull(table.get("K1"));
+        }
+    }
+
+    @Test
+    void testDifferentLayout() throws IOException {
+        Path file = tempDir.resolve("layout.slru");
+        try (SharedMemoryTable<String, String> table = open(file, 64, 4)) {
+            table.put("K1", "V1");
+        }
+        assertThrows(IOException.class, () -> open(file, 32, 8));
+        try (SharedMemoryTable<String, String> table = open(file, 64, 4)) {
+            assertEquals("V1", table.get("K1"));
+        }
+    }
+
+    @Test
+    void testNoTornReads() throws Exception {
+        Path file = tempDir.resolve("torn.slru");
+        try (SharedMemoryTable<String, String> writerTable = open(file, 1, 1);
+             SharedMemoryTable<String, String> readerTable = open(file, 1, 1)) {
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicInteger torn = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (int w = 0; w < 2; w++) {
+                char letter = (char) ('A' + w);
+                threads.add(new Thread(() -> {
+                    int i = 0;
+                    while (running.get()) {
+                        writerTable.put("K", String.valueOf(letter).repeat(1 + (i++ % 200)));
+                    }
+                }));
+            }
+            threads.add(new Thread(() -> {
+                while (running.get()) {
+                    String value = readerTable.get("K");
+                    if (value != null && !value.replace(value.substring(0, 1), "").isEmpty()) {
+                        torn.incrementAndGet();
+                    }
+                }
+            }));
+            threads.forEach(Thread::start);
+            Thread.sleep(500);
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(0, torn.get());
+        }
+    }
+
+    // The process id of a process that no longer exists.
+    private static long deadProcessId() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), "-version")
+            .redirectErrorStream(true)
+            .start();
+        process.getInputStream().readAllBytes();
+        process.waitFor();
+        return process.pid();
+    }
+
+    @Test
+    void testTakeOverFromDeadWriter() throws Exception {
+        Path file = tempDir.resolve("takeover.slru");
+        try (SharedMemoryTable<String, String> first = open(file, 1, 1);
+             SharedMemoryTable<String, String> second = open(file, 1, 1)) {
+            assertTrue(first.put("K", "V1"));
+
+            // A writer in another process locks the slot and dies halfway through writing "K" = "Torn".
+            long deadPid = deadProcessId();
+            int offset = first.slotOffset(0, 0);
+            long lockedSequence = first.tryLock(offset, deadPid);
+            assertTrue(lockedSequence > 0);
+            byte[] key = Codec.utf8().encode("K");
+            first.writeEntry(offset, first.keyHash(key), key, Codec.utf8().encode("Torn"));
+            assertNull(second.get("K")); // Being written
+
+            // Another process takes over the slot
+            assertTrue(second.put("K", "V2"));
+            assertEquals("V2", first.get("K"));
+
+            // If the old writer would continue it can no longer release the slot.
+            assertFalse(first.unlock(offset, deadPid, lockedSequence));
+            assertEquals("V2", second.get("K"));
+            assertTrue(second.put("K", "V3"));
+            assertEquals("V3", first.get("K"));
+        }
+    }
+
+    @Test
+    void testTakeOverAfterDyingWhileLocking() throws Exception {
+        Path file = tempDir.resolve("locking.slru");
+        try (SharedMemoryTable<String, String> first = open(file, 1, 1);
+             SharedMemoryTable<String, String> second = open(file, 1, 1)) {
+            assertTrue(first.put("K", "V1"));
+
+            // A writer in another process became the owner and died before it started writing.
+            long deadPid = deadProcessId();
+            int offset = first.slotOffset(0, 0);
+            assertTrue(first.takeOwnership(offset, deadPid));
+            assertEquals("V1", second.get("K")); // Nothing was changed
+
+            assertTrue(second.put("K", "V2"));
+            assertEquals("V2", first.get("K"));
+        }
+    }
+
+    @Test
+    void testTakeOverAfterDyingWhileUnlocking() throws Exception {
+        Path file = tempDir.resolve("unlocking.slru");
+        try (SharedMemoryTable<String, String> first = open(file, 1, 1);
+             SharedMemoryTable<String, String> second = open(file, 1, 1)) {
+            assertTrue(first.put("K", "V1"));
+
+            // A writer in another process completed writing and died before it gave up the ownership.
+            long deadPid = deadProcessId();
+            int offset = first.slotOffset(0, 0);
+            long lockedSequence = first.tryLock(offset, deadPid);
+            assertTrue(lockedSequence > 0);
+            byte[] key = Codec.utf8().encode("K");
+            first.writeEntry(offset, first.keyHash(key), key, Codec.utf8().encode("V2"));
+            assertTrue(first.finishWriting(offset, deadPid, lockedSequence));
+            assertEquals("V2", second.get("K"));
+
+            assertTrue(second.put("K", "V3"));
+            assertEquals("V3", first.get("K"));
+            assertTrue(second.remove("K"));
+            assertNull(first.get("K"));
+        }
+    }
+
+    @Test
+    void testNoTakeOverFromLiveWriter() throws IOException, InterruptedException {
+        Path file = tempDir.resolve("live.slru");
+        try (SharedMemoryTable<String, String> first = open(file, 1, 1);
+             SharedMemoryTable<String, String> second = open(file, 1, 1)) {
+            assertTrue(first.put("K", "V1"));
+
+            // A (very slow) writer in a process that is still alive.
+            long livePid = ProcessHandle.current().pid();
+            int offset = first.slotOffset(0, 0);
+            long lockedSequence = first.tryLock(offset, livePid);
+            assertTrue(lockedSequence > 0);
+            Thread.sleep(50);
+
+            assertFalse(second.put("K", "V2"));
+            assertFalse(second.remove("K"));
+            assertNull(second.get("K"));
+
+            assertTrue(first.unlock(offset, livePid, lockedSequence));
+            assertEquals("V1", second.get("K"));
+        }
+    }
+
+    @Test
+    void testTwoTierMap() throws IOException {
+        Path file = tempDir.resolve("map.slru");
+        try (SharedMemoryTable<String, String> firstTable = open(file, 64, 4);
+             SharedMemoryTable<String, String> secondTable = open(file, 64, 4)) {
+            SLRUMapSharedMemory<String, String> first  = new SLRUMapSharedMemory<>(10, 0, firstTable);
+            SLRUMapSharedMemory<String, String> second = new SLRUMapSharedMemory<>(10, 0, secondTable);
+
+            first.put("K1", "V1");
+            assertEquals(0, second.size());
+            assertEquals("V1", second.get("K1"));
+            assertEquals(1, second.size()); // Now also in the local tier
+
+            first.remove("K1");
+            assertNull(firstTable.get("K1"));
+            assertEquals("V1", second.get("K1")); // Still in the local tier of the other process
+
+            // Evicted locally but still in the shared tier
+            for (int i = 0; i < 20; i++) {
+                first.put("Key" + i, "Value" + i);
+            }
+            assertNull(first.get(42));
+            assertEquals("Value0", first.get("Key0"));
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestSoftValues {
+
+    @Test
+    void testPutGet() {
+        SLRUMap<String, String> map = new SLRUMap<>(3, 0);
+        map.setSoftValues(true);
+        assertTrue(map.isSoftValues());
+
+        map.put("K1", "V1");
+        map.put("K2", null);
+        assertEquals("V1", map.get("K1"));
+        assertNull(map.get("K2"));
+        assertTrue(map.containsKey("K2"));
+        assertEquals("V1", map.put("K1", "V1b"));
+        assertEquals("V1b", map.remove("K1"));
+
+        // The normal LRU bound still applies
+        for (int i = 0; i < 10; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        assertEquals(3, map.size());
+        assertEquals("V9", map.get("K9"));
+    }
+
+    @Test
+    void testNoDecodedCache() {
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setValueCodec(Codec.utf8(), 4);
+        map.setSoftValues(true);
+
+        // The hot value is decoded each time so only the soft reference holds on to it.
+        map.put("K1", "V1");
+        String first = map.get("K1");
+        assertEquals("V1", first);
+        assertNotSame(first, map.get("K1"));
+    }
+
+    @Test
+    void testCollectedValuesArePurged() {
+        SLRUMap<String, String> map = new SLRUMap<>(1000, 0);
+        map.setSoftValues(true);
+        map.setValueCodec(Codec.utf8());
+        List<String> removals = new ArrayList<>();
+        map.setRemovalListener(n -> removals.add(n.getCause() + ":" + n.getKey() + "=" + n.getValue()), Runnable::run);
+
+        for (int i = 0; i < 10; i++) {
+            map.put("K" + i, "V" + i);
+        }
+        assertEquals(20, map.getWeight());
+
+        map.clearAllSoftValues();
+
+        // A cleared value is a miss
+        assertNull(map.get("K1"));
+        assertEquals(10, map.size());
+
+        // The next put removes the entries of the cleared values
+        map.put("New", "Value");
+        assertEquals(1, map.size());
+        assertEquals(5, map.getWeight());
+        assertEquals("Value", map.get("New"));
+        assertEquals(10, removals.size());
+        assertTrue(removals.contains("COLLECTED:K3=null"), removals.toString());
+    }
+
+    @Test
+    void testOnlyChangeWhenEmpty() {
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.put("K1", "V1");
+        assertThrows(IllegalStateException.class, () -> map.setSoftValues(true));
+    }
+
+}
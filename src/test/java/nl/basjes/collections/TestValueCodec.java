@@ -0,0 +1,127 @@
+package nl.basjes.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestValueCodec {
+
+    private static String bigValue(int id) {
+        StringBuilder sb = new StringBuilder("OUT-");
+        for (int i = 0; i < 100; i++) {
+            sb.append("Some repeating text for entry ").append(id).append(' ');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testCompressedPutGet() {
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setValueCodec(Codec.deflated(Codec.utf8()));
+
+        map.put("K1", bigValue(1));
+        map.put("K2", bigValue(2));
+        map.put("K3", null);
+        assertEquals(bigValue(1), map.get("K1"));
+        assertEquals(bigValue(2), map.get("K2"));
+        assertNull(map.get("K3"));
+        assertTrue(map.containsKey("K3"));
+        assertTrue(map.containsValue(bigValue(2)));
+
+        // The weight is the number of compressed bytes
+        assertTrue(map.getWeight() > 0);
+        assertTrue(map.getWeight() < bigValue(1).length() / 10, "Bad compression: " + map.getWeight());
+
+        assertEquals(bigValue(1), map.put("K1", bigValue(3)));
+        assertEquals(bigValue(3), map.get("K1"));
+        assertEquals(bigValue(3), map.remove("K1"));
+        assertEquals(bigValue(2), map.remove("K2"));
+        assertEquals(0, map.getWeight());
+    }
+
+    @Test
+    void testDictionaryAndSerialization() {
+        byte[] dictionary = "Some repeating text for entry ".getBytes(StandardCharsets.UTF_8);
+        SLRUMap<String, HashMap<String, String>> map = new SLRUMap<>(10, 0);
+        map.setValueCodec(Codec.deflated(Codec.serializing(), dictionary));
+
+        HashMap<String, String> value = new HashMap<>();
+        value.put("Name", bigValue(1));
+        value.put("Version", "1.0");
+        map.put("K1", value);
+        assertEquals(value, map.get("K1"));
+    }
+
+    @Test
+    void testDecodedCache() {
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.setValueCodec(Codec.deflated(Codec.utf8()), 4);
+
+        map.put("K1", bigValue(1));
+        String first = map.get("K1");
+        assertSame(first, map.get("K1"));
+
+        // A new value must never return the old decoded value
+        map.put("K1", bigValue(2));
+        assertEquals(bigValue(2), map.get("K1"));
+    }
+
+    @Test
+    void testMaxWeight() {
+        SLRUMap<String, String> map = new SLRUMap<>(1000, 0);
+        map.setValueCodec(Codec.utf8());
+        map.setMaxWeight(1000);
+
+        for (int i = 0; i < 20; i++) {
+            map.put("K" + i, "0123456789012345678901234567890123456789012345678" + (i % 10)); // 50 bytes
+        }
+        assertEquals(20, map.size());
+        assertEquals(1000, map.getWeight());
+
+        map.put("K20", "0123456789012345678901234567890123456789012345678X");
+        assertEquals(20, map.size());
+        assertNull(map.get("K0"));
+
+        // Reducing the max weight removes the oldest entries
+        map.setMaxWeight(500);
+        assertEquals(10, map.size());
+        assertEquals(500, map.getWeight());
+        assertNull(map.get("K10"));
+        assertEquals("0123456789012345678901234567890123456789012345678X", map.get("K20"));
+    }
+
+    @Test
+    void testMaxWeightBackgroundFlush() throws InterruptedException {
+        SLRUMap<String, String> map = new SLRUMapBackgroundFlush<>(1000, 0);
+        map.setValueCodec(Codec.utf8());
+        map.setMaxWeight(100);
+
+        for (int i = 0; i < 50; i++) {
+            map.put("K" + i, "012345678" + (i % 10)); // 10 bytes
+        }
+
+        // The eviction happens in the background
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (map.getWeight() > 100 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(100, map.getWeight());
+        assertEquals(10, map.size());
+        assertEquals("0123456789", map.get("K49"));
+    }
+
+    @Test
+    void testOnlyChangeWhenEmpty() {
+        SLRUMap<String, String> map = new SLRUMap<>(10, 0);
+        map.put("K1", "V1");
+        assertThrows(IllegalStateException.class, () -> map.setValueCodec(Codec.utf8()));
+    }
+
+}
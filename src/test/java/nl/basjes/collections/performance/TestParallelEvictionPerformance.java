@@ -0,0 +1,90 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.collections.performance;
+
+import nl.basjes.collections.SLRUMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This test is intended to see how the time needed for an eviction depends on the number of cores used.
+ */
+@Disabled("These performance tests are too heavy to run automatically.")
+class TestParallelEvictionPerformance {
+    private static final Logger LOG = LogManager.getFormatterLogger(TestParallelEvictionPerformance.class);
+
+    private static final int EVICTIONS = 200;
+
+    public static Iterable<Integer> cacheSizes() {
+        return List.of(
+            100_000,
+            200_000,
+            500_000
+        );
+    }
+
+    private static List<Integer> parallelism() {
+        List<Integer> parallelism = new ArrayList<>();
+        parallelism.add(0); // Sequential
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int p = 1; p < cores; p *= 2) {
+            parallelism.add(p);
+        }
+        parallelism.add(cores);
+        return parallelism;
+    }
+
+    @ParameterizedTest(name = "Test parallel eviction for cachesize {0}")
+    @MethodSource("cacheSizes")
+    void testEvictionPerCoreCount(int cacheSize) {
+        for (int cores : parallelism()) {
+            ForkJoinPool pool = cores == 0 ? null : new ForkJoinPool(cores);
+            try {
+                SLRUMap<String, String> map = new SLRUMap<>(cacheSize, 0);
+                map.setParallelEviction(pool, 0);
+
+                // Ensure the LRU is full
+                for (int i = 0; i < cacheSize; i++) {
+                    map.put("Dummy-" + i, "OUT-Dummy-" + i);
+                }
+
+                // Every put after this one causes an eviction
+                long start = System.nanoTime();
+                for (int i = 0; i < EVICTIONS; i++) {
+                    map.put("Extra-" + i, "OUT-Extra-" + i);
+                }
+                long nanosUsed = System.nanoTime() - start;
+
+                LOG.info("%-10s(%6d) --> %8.3fms per eviction",
+                    cores == 0 ? "Sequential" : "Cores " + cores, cacheSize,
+                    ((float) nanosUsed / EVICTIONS) / 1_000_000L);
+            } finally {
+                if (pool != null) {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.collections.performance;
+
+import nl.basjes.collections.SLRUMap;
+import nl.basjes.collections.SLRUMapBackgroundFlush;
+import nl.basjes.collections.performance.TraceReplaySimulator.CountingLRUMap;
+import nl.basjes.collections.performance.TraceReplaySimulator.LatencyHistogram;
+import nl.basjes.collections.performance.TraceReplaySimulator.Result;
+import nl.basjes.collections.performance.TraceReplaySimulator.Trace;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestTraceReplaySimulator {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<String> keys(Trace trace) throws IOException {
+        try (Stream<String> keys = trace.open()) {
+            return keys.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void testScanDefeatsLRU() throws IOException {
+        Trace trace = TraceReplaySimulator.scan(200, 1000);
+        CountingLRUMap lruMap = new CountingLRUMap(100);
+        Result lru  = TraceReplaySimulator.replay("LRUMap",  lruMap,                100, trace, lruMap::getEvictions);
+        Result slru = TraceReplaySimulator.replay("SLRUMap", new SLRUMap<>(100, 0), 100, trace);
+        for (Result result : List.of(lru, slru)) {
+            assertEquals(1000, result.getRequests());
+            assertEquals(0, result.getHits(), result.toString());
+            assertEquals(900, result.getEvictions(), result.toString());
+            assertTrue(result.getLatencyPercentile(50) <= result.getLatencyPercentile(100));
+        }
+    }
+
+    @Test
+    void testZipfianHitRatio() throws IOException {
+        Trace trace = TraceReplaySimulator.zipfian(1000, 1.0, 20_000, 42);
+        assertEquals(keys(trace), keys(trace)); // Every replay gets the same trace
+        for (Result result : TraceReplaySimulator.replayAll(trace, 100, 0)) {
+            // The 100 most popular of the 1000 keys get about 69% of the requests.
+            assertTrue(result.getHitRatio() > 0.5, result.toString());
+        }
+    }
+
+    @Test
+    void testBackgroundFlushEvictions() throws IOException {
+        Trace trace = TraceReplaySimulator.scan(20_000, 20_000);
+        for (int i = 0; i < 5; i++) {
+            Result result = TraceReplaySimulator.replay("SLRUMap BG", new SLRUMapBackgroundFlush<>(1000, 100), 1000, trace);
+            // At the end up to flushSize entries more than the capacity may be retained
+            // and a last background flush may still be running.
+            assertTrue(result.getEvictions() >= 18_800 && result.getEvictions() <= 19_000, result.toString());
+        }
+    }
+
+    @Test
+    void testReadGzippedTrace() throws IOException {
+        Path file = tempDir.resolve("trace.txt.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file));
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            writer.write("Mozilla/5.0\nCurl/7.0\nMozilla/5.0\n");
+        }
+        Trace trace = TraceReplaySimulator.readTrace(file);
+        assertEquals(List.of("Mozilla/5.0", "Curl/7.0", "Mozilla/5.0"), keys(trace));
+
+        Path plain = tempDir.resolve("trace.txt");
+        Files.writeString(plain, "A\nB\n");
+        assertEquals(List.of("A", "B"), keys(TraceReplaySimulator.trace(plain.toString())));
+
+        // The file is read again for each replay.
+        for (int i = 0; i < 2; i++) {
+            Result result = TraceReplaySimulator.replay("SLRUMap", new SLRUMap<>(10, 0), 10, trace);
+            assertEquals(3, result.getRequests());
+            assertEquals(1, result.getHits());
+        }
+    }
+
+    @Test
+    void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos);
+        }
+        histogram.record(5_000_000);
+        assertEquals(1001, histogram.getTotal());
+
+        long median = histogram.getPercentile(50);
+        assertTrue(median >= 500 && median <= 500 * 1.125, "Median: " + median);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 990 * 1.125, "P99: " + p99);
+        assertEquals(5_000_000, histogram.getPercentile(100));
+
+        // Every value falls in a bucket of which the upper bound is at most 12.5% higher.
+        for (long nanos : new long[]{0, 1, 7, 8, 9, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE}) {
+            long upperBound = LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(nanos));
+            assertTrue(upperBound >= nanos && upperBound - nanos <= nanos / 8, nanos + " -> " + upperBound);
+        }
+    }
+
+}
@@ -0,0 +1,393 @@
+/*
+ * Yet Another UserAgent Analyzer
+ * Copyright (C) 2013-2021 Niels Basjes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.collections.performance;
+
+import nl.basjes.collections.RemovalCause;
+import nl.basjes.collections.SLRUMap;
+import nl.basjes.collections.SLRUMapBackgroundFlush;
+import org.apache.commons.collections4.map.LRUMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Replays a sequence of keys (a recorded trace or a generated one) against the different cache implementations
+ * to see which capacity, flushSize and implementation gives which hit ratio at what cost.
+ * <p>
+ * Each key is handled like a cached analyzer would: a get and on a miss a put.
+ * The trace is streamed (once for each implementation) and the latencies are kept in a fixed size histogram
+ * so the memory needed does not depend on the length of the trace.
+ * <p>
+ * Usage:
+ * <pre>
+ *   TraceReplaySimulator &lt;trace&gt; &lt;capacity&gt;[,&lt;capacity&gt;...] [&lt;flushSize&gt;]
+ * </pre>
+ * where the trace is one of
+ * <ul>
+ *   <li>a file with one key per line (gzip compressed files are detected automatically)</li>
+ *   <li>zipf:&lt;distinct keys&gt;:&lt;skew&gt;:&lt;length&gt; for a generated Zipfian distributed trace</li>
+ *   <li>scan:&lt;distinct keys&gt;:&lt;length&gt; for a generated trace that loops over all keys</li>
+ * </ul>
+ */
+public final class TraceReplaySimulator {
+    private static final Logger LOG = LogManager.getFormatterLogger(TraceReplaySimulator.class);
+
+    private TraceReplaySimulator() {
+    }
+
+    /** A trace that can be replayed several times. */
+    @FunctionalInterface
+    public interface Trace {
+        /**
+         * @return A new stream of all the keys in the trace (must be closed).
+         * @throws IOException If the trace cannot be read.
+         */
+        Stream<String> open() throws IOException;
+    }
+
+    /**
+     * A histogram of latencies with 8 buckets per power of 2 (so at most 12.5% off) that never grows.
+     */
+    public static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long total = 0;
+        private long max = 0;
+
+        static int bucketOf(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+            int subBucket = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return ((magnitude - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+        }
+
+        // The highest value that is counted in this bucket.
+        static long upperBoundOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int magnitude = (bucket >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket & (SUB_BUCKETS - 1);
+            long lowerBound = (1L << magnitude) | (subBucket << (magnitude - SUB_BUCKET_BITS));
+            return lowerBound + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+        }
+
+        public void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            counts[bucketOf(nanos)]++;
+            total++;
+            max = Math.max(max, nanos);
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @param percentile The percentile (0-100).
+         * @return The (upper bound of the bucket of the) latency at this percentile.
+         */
+        public long getPercentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(bucket), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    /** The outcome of replaying a trace against a single cache. */
+    public static final class Result {
+        private final String name;
+        private final int    capacity;
+        private final long   requests;
+        private final long   hits;
+        private final long   evictions;
+        private final LatencyHistogram latencies;
+
+        Result(String name, int capacity, long requests, long hits, long evictions, LatencyHistogram latencies) {
+            this.name = name;
+            this.capacity = capacity;
+            this.requests = requests;
+            this.hits = hits;
+            this.evictions = evictions;
+            this.latencies = latencies;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public double getHitRatio() {
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        /**
+         * @return The number of entries that were removed because the cache was full.
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @param percentile The percentile (0-100).
+         * @return The latency (in ns) of a single request (get and put on a miss) at this percentile.
+         */
+        public long getLatencyPercentile(double percentile) {
+            return latencies.getPercentile(percentile);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-10s(%8d) --> Hit ratio %6.2f%% | Evictions %10d | Latency ns p50 %7d p90 %7d p99 %8d p99.9 %8d max %10d",
+                name, capacity, getHitRatio() * 100, evictions,
+                getLatencyPercentile(50), getLatencyPercentile(90), getLatencyPercentile(99),
+                getLatencyPercentile(99.9), getLatencyPercentile(100));
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param file A file with one key per line, may be gzip compressed.
+     * @return A trace that reads the file each time it is replayed.
+     */
+    public static Trace readTrace(Path file) {
+        return () -> {
+            InputStream raw = new BufferedInputStream(Files.newInputStream(file));
+            try {
+                raw.mark(2);
+                boolean gzipped = raw.read() == 0x1F && raw.read() == 0x8B;
+                raw.reset();
+                InputStream input = gzipped ? new GZIPInputStream(raw) : raw;
+                BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                return reader.lines().onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                raw.close();
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * @param distinct The number of different keys.
+     * @param skew The skew (the exponent) of the distribution, 1.0 is the 'classic' Zipf.
+     * @param length The length of the trace.
+     * @param seed The seed of the random generator (each replay gets the same trace).
+     * @return A trace in which key N is requested proportional to 1/N^skew.
+     */
+    public static Trace zipfian(int distinct, double skew, int length, long seed) {
+        double[] cumulative = new double[distinct];
+        double sum = 0;
+        for (int i = 0; i < distinct; i++) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+        double total = sum;
+        return () -> {
+            Random random = new Random(seed);
+            return IntStream.range(0, length).mapToObj(i -> {
+                int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                if (index < 0) {
+                    index = -index - 1;
+                }
+                return "Key-" + Math.min(index, distinct - 1);
+            });
+        };
+    }
+
+    /**
+     * @param distinct The number of different keys.
+     * @param length The length of the trace.
+     * @return A trace that requests all keys in the same order over and over again (the worst case for an LRU).
+     */
+    public static Trace scan(int distinct, int length) {
+        return () -> IntStream.range(0, length).mapToObj(i -> "Key-" + (i % distinct));
+    }
+
+    // ------------------------------------------
+
+    /** An LRUMap that counts the entries it removes because it is full. */
+    public static final class CountingLRUMap extends LRUMap<String, String> {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicLong evictions = new AtomicLong();
+
+        public CountingLRUMap(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected boolean removeLRU(LinkEntry<String, String> entry) {
+            evictions.incrementAndGet();
+            return true;
+        }
+
+        public long getEvictions() {
+            return evictions.get();
+        }
+    }
+
+    /**
+     * Replay the trace against one of the SLRUMap variants, the evictions are counted with a removal listener.
+     * @param name The name to report.
+     * @param cache The (empty) cache.
+     * @param capacity The capacity of the cache (only used in the report).
+     * @param trace The keys to request.
+     * @return The measured result.
+     * @throws IOException If the trace cannot be read.
+     */
+    public static Result replay(String name, SLRUMap<String, String> cache, int capacity, Trace trace) throws IOException {
+        AtomicLong evictions = new AtomicLong();
+        cache.setRemovalListener(notification -> {
+            if (notification.getCause() == RemovalCause.SIZE) {
+                evictions.incrementAndGet();
+            }
+        }, Runnable::run);
+        return replay(name, cache, capacity, trace, evictions::get);
+    }
+
+    /**
+     * Replay the trace against the cache.
+     * @param name The name to report.
+     * @param cache The (empty) cache.
+     * @param capacity The capacity of the cache (only used in the report).
+     * @param trace The keys to request.
+     * @param evictions Provides the number of evictions done by the cache so far.
+     * @return The measured result.
+     * @throws IOException If the trace cannot be read.
+     */
+    public static Result replay(String name, Map<String, String> cache, int capacity, Trace trace, LongSupplier evictions) throws IOException {
+        LatencyHistogram latencies = new LatencyHistogram();
+        long hits = 0;
+        try (Stream<String> keys = trace.open()) {
+            Iterator<String> iterator = keys.iterator();
+            while (iterator.hasNext()) {
+                String key = iterator.next();
+                long start = System.nanoTime();
+                String value = cache.get(key);
+                if (value == null) {
+                    cache.put(key, "OUT-" + key);
+                } else {
+                    hits++;
+                }
+                latencies.record(System.nanoTime() - start);
+            }
+        }
+        if (cache instanceof SLRUMapBackgroundFlush) {
+            // Give the background flush the time to finish (best effort: a new one can start right after this).
+            SLRUMapBackgroundFlush<?, ?> backgroundFlush = (SLRUMapBackgroundFlush<?, ?>) cache;
+            while (backgroundFlush.isFlushRunning()) {
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+        return new Result(name, capacity, latencies.getTotal(), hits, evictions.getAsLong(), latencies);
+    }
+
+    /**
+     * Replay the trace against all implementations.
+     * @param trace The keys to request.
+     * @param capacity The capacity of the caches.
+     * @param flushSize The flushSize of the SLRUMap variants.
+     * @return The results of all implementations.
+     * @throws IOException If the trace cannot be read.
+     */
+    public static List<Result> replayAll(Trace trace, int capacity, int flushSize) throws IOException {
+        List<Result> results = new ArrayList<>();
+        results.add(replay("SLRUMap",    new SLRUMap<>(capacity, flushSize),                capacity, trace));
+        results.add(replay("SLRUMap BG", new SLRUMapBackgroundFlush<>(capacity, flushSize), capacity, trace));
+        CountingLRUMap lruMap = new CountingLRUMap(capacity);
+        results.add(replay("LRUMap",     Collections.synchronizedMap(lruMap), capacity, trace, lruMap::getEvictions));
+        return results;
+    }
+
+    static Trace trace(String specification) {
+        String[] parts = specification.split(":");
+        switch (parts[0]) {
+            case "zipf":
+                return zipfian(Integer.parseInt(parts[1]), Double.parseDouble(parts[2]), Integer.parseInt(parts[3]), 42);
+            case "scan":
+                return scan(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            default:
+                return readTrace(Paths.get(specification));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            LOG.error("Usage: TraceReplaySimulator <file|zipf:<distinct>:<skew>:<length>|scan:<distinct>:<length>> <capacity>[,<capacity>...] [<flushSize>]");
+            return;
+        }
+        Trace trace = trace(args[0]);
+        int flushSize = args.length > 2 ? Integer.parseInt(args[2]) : SLRUMap.DEFAULT_FLUSH_SIZE;
+        LOG.info("Replaying %s with flushSize %d", args[0], flushSize);
+        for (String capacity : args[1].split(",")) {
+            for (Result result : replayAll(trace, Integer.parseInt(capacity.trim()), flushSize)) {
+                LOG.info("%s", result);
+            }
+        }
+    }
+}